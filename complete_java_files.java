@@ -4,365 +4,2945 @@
 package util;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * Database connection utility class
+ * Database connection utility class.
+ * Connections are handed out from a shared bounded pool; closing a connection
+ * returns it to the pool instead of closing the underlying SQLite handle.
+ * Write transactions go through write(), which applies the configured StorageMode.
  */
 public class DBConnection {
-    private static final String URL = "jdbc:sqlite:resources/library.db";
+    private static final String URL = System.getProperty("library.db.url", "jdbc:sqlite:resources/library.db");
+    
+    // Pool settings, overridable with -D system properties
+    private static final int POOL_SIZE = Integer.getInteger("library.db.pool.size", 8);
+    private static final long IDLE_TIMEOUT_MS = Long.getLong("library.db.pool.idleTimeoutMs", 300_000L);
+    private static final long BORROW_TIMEOUT_MS = Long.getLong("library.db.pool.borrowTimeoutMs", 30_000L);
+    private static final int BUSY_TIMEOUT_MS = Integer.getInteger("library.db.busyTimeoutMs", 5_000);
+    private static final StorageMode STORAGE_MODE =
+            StorageMode.valueOf(System.getProperty("library.db.storageMode", "ROLLBACK_JOURNAL").toUpperCase());
+    
+    // Group commit (WAL mode only): coalesce up to N writes arriving within the window into one transaction
+    private static final int GROUP_COMMIT_MAX_BATCH = Integer.getInteger("library.db.groupCommit.maxBatch", 1);
+    private static final long GROUP_COMMIT_WINDOW_MS = Long.getLong("library.db.groupCommit.windowMs", 0L);
+    
+    private static volatile ConnectionPool pool;
+    private static volatile WriteQueue writeQueue;
+    
+    // Rollback-journal mode commits on callers' threads; commit and hooks run as one step
+    private static final Object COMMIT_LOCK = new Object();
     
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL);
+        return getPool().borrow();
     }
-}
-
-// ============== MODEL PACKAGE ==============
-
-// model/User.java
-package model;
-
-/**
- * User model class
- */
-public class User {
-    private int id;
-    private String username;
-    private String password;
-    private String role;
     
-    // Default constructor
-    public User() {}
+    public static StorageMode getStorageMode() {
+        return STORAGE_MODE;
+    }
     
-    // Parameterized constructor
-    public User(String username, String password, String role) {
-        this.username = username;
-        this.password = password;
-        this.role = role;
+    /**
+     * Runs the work as a single write transaction and returns its result.
+     * In WAL mode the transaction is executed by the single writer thread;
+     * otherwise it runs on the caller's thread using a pooled connection.
+     */
+    public static <T> T write(SqlWork<T> work) throws SQLException {
+        if (STORAGE_MODE == StorageMode.WAL) {
+            return getWriteQueue().submit(work);
+        }
+        
+        List<Runnable> enclosing = CommitHooks.begin();
+        boolean committed = false;
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                T result = work.execute(conn);
+                synchronized (COMMIT_LOCK) {
+                    conn.commit();
+                    committed = true;
+                    CommitHooks.run(CommitHooks.end(enclosing));
+                }
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        } finally {
+            if (!committed) {
+                // Drop the hooks of the failed transaction
+                CommitHooks.end(enclosing);
+            }
+        }
     }
     
-    // Getters and setters
-    public int getId() { return id; }
-    public void setId(int id) { this.id = id; }
+    /**
+     * Runs hook once the write transaction in progress on this thread commits,
+     * and not at all if it rolls back. Hooks run in commit order, before the
+     * write's caller is told the result, which makes them the place to update
+     * in-memory copies of the data that must not be applied out of order.
+     * 
+     * @throws IllegalStateException if called outside a SqlWork passed to write()
+     */
+    public static void afterCommit(Runnable hook) {
+        CommitHooks.add(hook);
+    }
     
-    public String getUsername() { return username; }
-    public void setUsername(String username) { this.username = username; }
+    /**
+     * Queues the work as a write transaction without waiting for it.
+     * In WAL mode with group commit enabled this lets a single caller feed many
+     * writes into one commit; in rollback-journal mode the work runs immediately
+     * and the returned future is already complete.
+     */
+    public static <T> CompletableFuture<T> writeAsync(SqlWork<T> work) {
+        if (STORAGE_MODE == StorageMode.WAL) {
+            return getWriteQueue().submitAsync(work);
+        }
+        
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            result.complete(write(work));
+        } catch (SQLException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
     
-    public String getPassword() { return password; }
-    public void setPassword(String password) { this.password = password; }
+    /**
+     * Opens a connection outside the pool, with the usual PRAGMAs applied.
+     * For long-lived per-connection state such as PRAGMA data_version; the caller must close it.
+     */
+    public static Connection openDedicatedConnection() throws SQLException {
+        return ConnectionPool.open(URL, initStatements());
+    }
     
-    public String getRole() { return role; }
-    public void setRole(String role) { this.role = role; }
+    /**
+     * Closes every pooled connection and stops the writer thread.
+     * Later calls start over with a new pool.
+     */
+    public static synchronized void shutdown() {
+        if (writeQueue != null) {
+            writeQueue.close();
+            writeQueue = null;
+        }
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
     
-    @Override
-    public String toString() {
-        return "User{id=" + id + ", username='" + username + "', role='" + role + "'}";
+    private static ConnectionPool getPool() {
+        ConnectionPool current = pool;
+        if (current == null) {
+            synchronized (DBConnection.class) {
+                current = pool;
+                if (current == null) {
+                    current = new ConnectionPool(URL, POOL_SIZE, IDLE_TIMEOUT_MS, BORROW_TIMEOUT_MS, initStatements());
+                    pool = current;
+                }
+            }
+        }
+        return current;
+    }
+    
+    private static WriteQueue getWriteQueue() {
+        WriteQueue current = writeQueue;
+        if (current == null) {
+            synchronized (DBConnection.class) {
+                current = writeQueue;
+                if (current == null) {
+                    current = new WriteQueue(URL, initStatements(), GROUP_COMMIT_MAX_BATCH, GROUP_COMMIT_WINDOW_MS);
+                    writeQueue = current;
+                }
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * PRAGMAs applied once to every new physical connection.
+     */
+    private static List<String> initStatements() {
+        List<String> statements = new ArrayList<>();
+        // foreign_keys is left off, as it always has been: enforcing it would switch on the
+        // schema's ON DELETE CASCADE, and deleting a book or member would erase its loan history
+        statements.add("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS);
+        if (STORAGE_MODE == StorageMode.WAL) {
+            statements.add("PRAGMA journal_mode = WAL");
+            // Safe with WAL: a power loss can drop the last commits but never corrupts the file
+            statements.add("PRAGMA synchronous = NORMAL");
+        } else {
+            statements.add("PRAGMA journal_mode = DELETE");
+        }
+        return statements;
     }
 }
 
-// model/Book.java
-package model;
+// util/ConnectionPool.java
+package util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Book model class
+ * Bounded pool of JDBC connections.
+ * - At most maxSize physical connections exist at any time
+ * - Connections idle longer than idleTimeoutMillis are closed by a background sweep
+ * - Connections are validated before being handed out
+ * - Init statements (PRAGMAs) run once per physical connection, not per borrow
  */
-public class Book {
-    private int id;
-    private String title;
-    private String author;
-    private String isbn;
-    private boolean available;
+public class ConnectionPool {
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
     
-    // Default constructor
-    public Book() {}
+    private final String url;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    private final List<String> initStatements;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
     
-    // Parameterized constructor
-    public Book(String title, String author, String isbn) {
-        this.title = title;
-        this.author = author;
-        this.isbn = isbn;
-        this.available = true;
+    public ConnectionPool(String url, int maxSize, long idleTimeoutMillis, long borrowTimeoutMillis,
+                          List<String> initStatements) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.url = url;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.initStatements = new ArrayList<>(initStatements);
+        this.permits = new Semaphore(maxSize, true);
+        
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long sweepMillis = Math.max(1_000L, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
     }
     
-    // Getters and setters
-    public int getId() { return id; }
-    public void setId(int id) { this.id = id; }
+    /**
+     * Borrows a connection, waiting up to the borrow timeout when the pool is exhausted.
+     * The caller must close() it to give it back.
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        
+        try {
+            Connection physical = takeValidIdle();
+            if (physical == null) {
+                physical = openPhysical();
+            }
+            return wrap(physical);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
     
-    public String getTitle() { return title; }
-    public void setTitle(String title) { this.title = title; }
+    public int getIdleCount() {
+        return idle.size();
+    }
     
-    public String getAuthor() { return author; }
-    public void setAuthor(String author) { this.author = author; }
+    /**
+     * Closes connections that have been idle longer than the idle timeout.
+     */
+    public void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        // Oldest idle connections sit at the tail, since release() pushes to the head
+        IdleConnection candidate;
+        while ((candidate = idle.peekLast()) != null && candidate.idleSince < cutoff) {
+            if (idle.removeLastOccurrence(candidate)) {
+                closeQuietly(candidate.connection);
+            }
+        }
+    }
     
-    public String getIsbn() { return isbn; }
-    public void setIsbn(String isbn) { this.isbn = isbn; }
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        IdleConnection entry;
+        while ((entry = idle.pollFirst()) != null) {
+            closeQuietly(entry.connection);
+        }
+    }
     
-    public boolean isAvailable() { return available; }
-    public void setAvailable(boolean available) { this.available = available; }
+    private Connection takeValidIdle() {
+        IdleConnection entry;
+        // Most recently used first, so rarely used connections age out
+        while ((entry = idle.pollFirst()) != null) {
+            try {
+                if (entry.connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    return entry.connection;
+                }
+            } catch (SQLException e) {
+                // fall through and discard
+            }
+            closeQuietly(entry.connection);
+        }
+        return null;
+    }
     
-    @Override
-    public String toString() {
-        return "Book{id=" + id + ", title='" + title + "', author='" + author + 
-               "', isbn='" + isbn + "', available=" + available + "}";
+    private Connection openPhysical() throws SQLException {
+        return open(url, initStatements);
+    }
+    
+    /**
+     * Opens a physical connection and runs the init statements on it.
+     */
+    static Connection open(String url, List<String> initStatements) throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            for (String sql : initStatements) {
+                stmt.execute(sql);
+            }
+        } catch (SQLException e) {
+            closeQuietly(conn);
+            throw e;
+        }
+        return conn;
+    }
+    
+    private void release(Connection physical) {
+        try {
+            boolean reusable = !closed && !physical.isClosed();
+            if (reusable && !physical.getAutoCommit()) {
+                // Callers may bail out mid-transaction; never hand a dirty connection to the next borrower
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            if (reusable) {
+                physical.clearWarnings();
+                idle.offerFirst(new IdleConnection(physical, System.currentTimeMillis()));
+            } else {
+                closeQuietly(physical);
+            }
+        } catch (SQLException e) {
+            closeQuietly(physical);
+        } finally {
+            permits.release();
+        }
+    }
+    
+    private Connection wrap(Connection physical) {
+        return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new PooledConnectionHandler(physical));
+    }
+    
+    private static void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing pooled connection: " + e.getMessage());
+        }
+    }
+    
+    private static class IdleConnection {
+        final Connection connection;
+        final long idleSince;
+        
+        IdleConnection(Connection connection, long idleSince) {
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
+    
+    /**
+     * Delegates to the physical connection, except that close() returns it to the pool.
+     */
+    private class PooledConnectionHandler implements InvocationHandler {
+        private final Connection physical;
+        private boolean returned;
+        
+        PooledConnectionHandler(Connection physical) {
+            this.physical = physical;
+        }
+        
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name) && method.getParameterCount() == 0) {
+                if (!returned) {
+                    returned = true;
+                    release(physical);
+                }
+                return null;
+            }
+            if ("isClosed".equals(name) && method.getParameterCount() == 0) {
+                return returned || physical.isClosed();
+            }
+            if ("equals".equals(name) && method.getParameterCount() == 1) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name) && method.getParameterCount() == 0) {
+                return System.identityHashCode(proxy);
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
     }
 }
 
-// model/Member.java
-package model;
+// util/CommitHooks.java
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Member model class
+ * Actions registered with DBConnection.afterCommit() by the write transaction
+ * running on the current thread. The committing code runs them right after the
+ * commit, before the next transaction commits, so in-memory mirrors of the data
+ * are updated in the same order as the database.
  */
-public class Member {
-    private int id;
-    private String name;
-    private String email;
-    private String phone;
-    private String address;
-    
-    // Default constructor
-    public Member() {}
+public final class CommitHooks {
+    private static final ThreadLocal<List<Runnable>> PENDING = new ThreadLocal<>();
     
-    // Parameterized constructor
-    public Member(String name, String email) {
-        this.name = name;
-        this.email = email;
+    private CommitHooks() {
     }
     
-    // Getters and setters
-    public int getId() { return id; }
-    public void setId(int id) { this.id = id; }
+    /**
+     * Starts collecting hooks for a new transaction on this thread.
+     * 
+     * @return the hooks of an enclosing transaction, to hand back to end()
+     */
+    static List<Runnable> begin() {
+        List<Runnable> enclosing = PENDING.get();
+        PENDING.set(new ArrayList<>());
+        return enclosing;
+    }
     
-    public String getName() { return name; }
-    public void setName(String name) { this.name = name; }
+    /**
+     * Stops collecting and returns this transaction's hooks.
+     */
+    static List<Runnable> end(List<Runnable> enclosing) {
+        List<Runnable> hooks = PENDING.get();
+        if (enclosing == null) {
+            PENDING.remove();
+        } else {
+            PENDING.set(enclosing);
+        }
+        return hooks == null ? new ArrayList<>() : hooks;
+    }
     
-    public String getEmail() { return email; }
-    public void setEmail(String email) { this.email = email; }
+    static void add(Runnable hook) {
+        List<Runnable> hooks = PENDING.get();
+        if (hooks == null) {
+            throw new IllegalStateException("afterCommit() called outside a write transaction");
+        }
+        hooks.add(hook);
+    }
     
-    public String getPhone() { return phone; }
-    public void setPhone(String phone) { this.phone = phone; }
+    /**
+     * Position to roll back to if part of the transaction is undone, e.g. a savepoint.
+     */
+    static int mark() {
+        List<Runnable> hooks = PENDING.get();
+        return hooks == null ? 0 : hooks.size();
+    }
     
-    public String getAddress() { return address; }
-    public void setAddress(String address) { this.address = address; }
+    static void rollbackTo(int mark) {
+        List<Runnable> hooks = PENDING.get();
+        if (hooks != null && hooks.size() > mark) {
+            hooks.subList(mark, hooks.size()).clear();
+        }
+    }
     
-    @Override
-    public String toString() {
-        return "Member{id=" + id + ", name='" + name + "', email='" + email + "'}";
+    static void run(List<Runnable> hooks) {
+        for (Runnable hook : hooks) {
+            try {
+                hook.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error in post-commit hook: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
     }
 }
 
-// ============== DAO PACKAGE ==============
+// util/SqlWork.java
+package util;
 
-// dao/UserDAO.java
-package dao;
+import java.sql.Connection;
+import java.sql.SQLException;
 
-import model.User;
-import util.DBConnection;
+/**
+ * A unit of database work run against a connection supplied by DBConnection.
+ * Write work runs inside a transaction that DBConnection commits or rolls back,
+ * so implementations must not commit, roll back or close the connection themselves.
+ */
+@FunctionalInterface
+public interface SqlWork<T> {
+    T execute(Connection conn) throws SQLException;
+}
 
-import java.sql.*;
+// util/StorageMode.java
+package util;
 
 /**
- * Data Access Object for User operations
+ * How the SQLite database file is journaled and how writes are scheduled.
  */
-public class UserDAO {
+public enum StorageMode {
+    /**
+     * SQLite's default rollback journal. Writes run on the caller's thread.
+     * Use this when library.db lives on a network share, where WAL is not supported.
+     */
+    ROLLBACK_JOURNAL,
     
-    public User getUserByUsername(String username) {
-        User user = null;
-        String sql = "SELECT * FROM users WHERE username = ?";
-        
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, username);
-            ResultSet rs = pstmt.executeQuery();
+    /**
+     * Write-ahead log. Readers run concurrently on pooled connections while all
+     * write transactions are serialized through a single writer thread.
+     */
+    WAL
+}
+
+// util/SearchMode.java
+package util;
+
+import java.util.Locale;
+
+/**
+ * How book and member searches match a keyword, chosen with library.search.mode.
+ */
+public enum SearchMode {
+    /**
+     * Words and prefixes through books_fts, ranked by bm25 (the default).
+     * Members have no full-text index and are matched as in LIKE.
+     */
+    FTS,
+    
+    /**
+     * Case-insensitive substring match with LIKE. As in SQLite, only ASCII
+     * letters are folded.
+     */
+    LIKE,
+    
+    /**
+     * The matches and order of LIKE, answered from in-memory trigram indexes,
+     * and with LIKE while an index is cold.
+     */
+    MEMORY;
+    
+    /**
+     * The mode given by library.search.mode. The older library.search.index=memory
+     * switch still selects MEMORY.
+     */
+    public static SearchMode configured() {
+        String legacy = "memory".equalsIgnoreCase(System.getProperty("library.search.index")) ? "memory" : "fts";
+        String mode = System.getProperty("library.search.mode", legacy);
+        try {
+            return valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown library.search.mode '" + mode + "', using fts");
+            return FTS;
+        }
+    }
+    
+    /**
+     * Pattern for "column LIKE ? ESCAPE '\'" that matches the keyword anywhere,
+     * with any %, _ or \ in it taken literally, as the trigram index takes them.
+     */
+    public static String containsPattern(String keyword) {
+        StringBuilder pattern = new StringBuilder("%");
+        if (keyword == null) {
+            return pattern.toString();
+        }
+        for (char c : keyword.toCharArray()) {
+            if (c == '%' || c == '_' || c == '\\') {
+                pattern.append('\\');
+            }
+            pattern.append(c);
+        }
+        return pattern.append('%').toString();
+    }
+}
+
+// util/WriteQueue.java
+package util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs write transactions on a dedicated writer thread that owns its own connection.
+ * 
+ * With group commit enabled (maxBatch > 1), requests that are already queued or
+ * arrive within windowMillis of the first one are run in a single transaction,
+ * up to maxBatch requests. Each request gets its own savepoint, so one failing
+ * request is rolled back on its own and the rest still commit together.
+ */
+public class WriteQueue {
+    private final String url;
+    private final List<String> initStatements;
+    private final int maxBatch;
+    private final long windowNanos;
+    private final BlockingQueue<WriteRequest<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+    
+    // Only touched by the writer thread
+    private Connection conn;
+    
+    public WriteQueue(String url, List<String> initStatements) {
+        this(url, initStatements, 1, 0);
+    }
+    
+    public WriteQueue(String url, List<String> initStatements, int maxBatch, long windowMillis) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.url = url;
+        this.initStatements = new ArrayList<>(initStatements);
+        this.maxBatch = maxBatch;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.writer = new Thread(this::runLoop, "db-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Queues the work and waits for its transaction to finish.
+     * Work submitted from inside another write simply joins the running transaction.
+     */
+    public <T> T submit(SqlWork<T> work) throws SQLException {
+        if (Thread.currentThread() == writer) {
+            return work.execute(conn);
+        }
+        try {
+            return submitAsync(work).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for write to complete", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException("Write failed", cause);
+        }
+    }
+    
+    /**
+     * Queues the work without waiting. The future completes once the transaction
+     * containing the work has committed, or exceptionally if the work or the commit failed.
+     */
+    public <T> CompletableFuture<T> submitAsync(SqlWork<T> work) {
+        WriteRequest<T> request = new WriteRequest<>(work);
+        if (closed) {
+            request.result.completeExceptionally(new SQLException("Write queue is closed"));
+        } else {
+            queue.add(request);
+        }
+        return request.result;
+    }
+    
+    public void close() {
+        closed = true;
+        writer.interrupt();
+    }
+    
+    private void runLoop() {
+        List<WriteRequest<?>> batch = new ArrayList<>(maxBatch);
+        try {
+            while (!closed) {
+                batch.add(queue.take());
+                collectBatch(batch);
+                if (batch.size() == 1) {
+                    execute(batch.get(0));
+                } else {
+                    executeGroup(batch);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // shutting down
+        } finally {
+            for (WriteRequest<?> request : batch) {
+                request.result.completeExceptionally(new SQLException("Write queue is closed"));
+            }
+            failPending(new SQLException("Write queue is closed"));
+            closeConnection();
+        }
+    }
+    
+    /**
+     * Tops up the batch with requests already queued or arriving before the window closes.
+     */
+    private void collectBatch(List<WriteRequest<?>> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxBatch) {
+            long remaining = deadline - System.nanoTime();
+            WriteRequest<?> next = remaining > 0
+                    ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+                    : queue.poll();
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+    
+    private <T> void execute(WriteRequest<T> request) {
+        CommitHooks.begin();
+        try {
+            Connection c = connection();
+            try {
+                T value = request.work.execute(c);
+                c.commit();
+                CommitHooks.run(CommitHooks.end(null));
+                request.result.complete(value);
+            } catch (SQLException | RuntimeException e) {
+                rollbackQuietly(c);
+                request.result.completeExceptionally(e);
+            }
+        } catch (SQLException e) {
+            // Could not (re)open the writer connection
+            request.result.completeExceptionally(e);
+        } finally {
+            CommitHooks.end(null);
+        }
+    }
+    
+    private void executeGroup(List<WriteRequest<?>> batch) {
+        Connection c;
+        try {
+            c = connection();
+        } catch (SQLException e) {
+            for (WriteRequest<?> request : batch) {
+                request.result.completeExceptionally(e);
+            }
+            return;
+        }
+        
+        List<Runnable> completions = new ArrayList<>(batch.size());
+        List<Runnable> hooks;
+        CommitHooks.begin();
+        try {
+            for (WriteRequest<?> request : batch) {
+                completions.add(executeInSavepoint(c, request));
+            }
+        } finally {
+            hooks = CommitHooks.end(null);
+        }
+        
+        try {
+            c.commit();
+        } catch (SQLException e) {
+            // Nothing in the group is durable; fail every request, including ones that ran cleanly
+            rollbackQuietly(c);
+            for (WriteRequest<?> request : batch) {
+                request.result.completeExceptionally(e);
+            }
+            return;
+        }
+        // Only report results once the whole group is durable, and after its hooks
+        CommitHooks.run(hooks);
+        for (Runnable completion : completions) {
+            completion.run();
+        }
+    }
+    
+    /**
+     * Runs one request of a group inside its own savepoint and returns the action
+     * that reports its outcome to the caller after the group commits.
+     */
+    private <T> Runnable executeInSavepoint(Connection c, WriteRequest<T> request) {
+        Savepoint savepoint = null;
+        int hookMark = CommitHooks.mark();
+        try {
+            savepoint = c.setSavepoint();
+            T value = request.work.execute(c);
+            c.releaseSavepoint(savepoint);
+            return () -> request.result.complete(value);
+        } catch (SQLException | RuntimeException e) {
+            // The request's writes are undone, so are its hooks
+            CommitHooks.rollbackTo(hookMark);
+            if (savepoint != null) {
+                try {
+                    c.rollback(savepoint);
+                    c.releaseSavepoint(savepoint);
+                } catch (SQLException rollbackError) {
+                    System.err.println("Error rolling back to savepoint: " + rollbackError.getMessage());
+                }
+            }
+            return () -> request.result.completeExceptionally(e);
+        }
+    }
+    
+    private Connection connection() throws SQLException {
+        if (conn == null || conn.isClosed()) {
+            conn = ConnectionPool.open(url, initStatements);
+            conn.setAutoCommit(false);
+        }
+        return conn;
+    }
+    
+    private void rollbackQuietly(Connection c) {
+        try {
+            c.rollback();
+        } catch (SQLException e) {
+            // The connection is in an unknown state, start over with a fresh one
+            System.err.println("Error rolling back write: " + e.getMessage());
+            closeConnection();
+        }
+    }
+    
+    private void failPending(SQLException error) {
+        WriteRequest<?> request;
+        while ((request = queue.poll()) != null) {
+            request.result.completeExceptionally(error);
+        }
+    }
+    
+    private void closeConnection() {
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing writer connection: " + e.getMessage());
+            }
+            conn = null;
+        }
+    }
+    
+    private static class WriteRequest<T> {
+        final SqlWork<T> work;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        
+        WriteRequest(SqlWork<T> work) {
+            this.work = work;
+        }
+    }
+}
+
+// util/TrigramIndex.java
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * In-memory substring index built from the 3-character sequences (trigrams) of
+ * each searchable field. A query is answered by intersecting the posting lists of
+ * its trigrams and then checking the few remaining candidates, which gives the
+ * same matches as SQLite's LIKE '%query%' (with %, _ and \ escaped, and only ASCII
+ * letters folded) without touching the database.
+ * 
+ * The index is cold until load() completes; callers should fall back to SQL while
+ * it is cold or when search() returns null (queries shorter than three characters).
+ * Items are copied on the way in and out, so callers can't mutate indexed state.
+ */
+public class TrigramIndex<T> {
+    private final ToIntFunction<T> idOf;
+    private final Function<T, List<String>> fieldsOf;
+    private final Comparator<T> order;
+    private final UnaryOperator<T> copier;
+    
+    private final Map<Integer, T> items = new HashMap<>();
+    private final Map<Long, PostingList> postings = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    // Changes that arrive while load() is reading the source; replayed on top of the snapshot
+    private final List<Runnable> pendingChanges = new ArrayList<>();
+    private boolean loading;
+    private volatile boolean warm;
+    
+    public TrigramIndex(ToIntFunction<T> idOf, Function<T, List<String>> fieldsOf,
+                        Comparator<T> order, UnaryOperator<T> copier) {
+        this.idOf = idOf;
+        this.fieldsOf = fieldsOf;
+        this.order = order;
+        this.copier = copier;
+    }
+    
+    public boolean isWarm() {
+        return warm;
+    }
+    
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return items.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * (Re)builds the index from the source. Changes made through put()/remove()
+     * while the source is being read are applied after the snapshot, so they are not lost.
+     */
+    public void load(Callable<? extends Collection<T>> source) throws Exception {
+        lock.writeLock().lock();
+        try {
+            loading = true;
+            pendingChanges.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        
+        Collection<T> snapshot;
+        try {
+            snapshot = source.call();
+        } catch (Exception e) {
+            lock.writeLock().lock();
+            try {
+                loading = false;
+                pendingChanges.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        
+        lock.writeLock().lock();
+        try {
+            items.clear();
+            postings.clear();
+            for (T item : snapshot) {
+                index(copier.apply(item));
+            }
+            for (Runnable change : pendingChanges) {
+                change.run();
+            }
+            pendingChanges.clear();
+            loading = false;
+            warm = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Adds the item, or replaces the item with the same id.
+     */
+    public void put(T item) {
+        T copy = copier.apply(item);
+        apply(() -> replace(copy));
+    }
+    
+    public void remove(int id) {
+        apply(() -> unindex(id));
+    }
+    
+    /**
+     * Changes an indexed item in place, e.g. to flip a status flag. Does nothing if the id is not indexed.
+     */
+    public void update(int id, Consumer<T> change) {
+        apply(() -> {
+            T existing = items.get(id);
+            if (existing != null) {
+                T copy = copier.apply(existing);
+                change.accept(copy);
+                replace(copy);
+            }
+        });
+    }
+    
+    /**
+     * Returns a copy of the indexed item, or null if it is not indexed.
+     */
+    public T get(int id) {
+        lock.readLock().lock();
+        try {
+            T item = items.get(id);
+            return item == null ? null : copier.apply(item);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns the items with a field containing the query (case-insensitive), in index order.
+     * Returns null when the index is cold or the query is too short to have a trigram.
+     */
+    public List<T> search(String query) {
+        if (!warm || query == null) {
+            return null;
+        }
+        String needle = normalize(query);
+        if (needle.length() < 3) {
+            return null;
+        }
+        
+        lock.readLock().lock();
+        try {
+            // Intersect the smallest posting lists first to keep the candidate set small
+            Set<Long> grams = trigrams(needle);
+            List<PostingList> lists = new ArrayList<>(grams.size());
+            for (long gram : grams) {
+                PostingList list = postings.get(gram);
+                if (list == null) {
+                    return new ArrayList<>();
+                }
+                lists.add(list);
+            }
+            lists.sort(Comparator.comparingInt(PostingList::size));
+            
+            List<T> results = new ArrayList<>();
+            PostingList smallest = lists.get(0);
+            for (int i = 0; i < smallest.size(); i++) {
+                int id = smallest.get(i);
+                if (inAll(lists, id)) {
+                    T item = items.get(id);
+                    // Trigrams can match out of order, so confirm the real substring
+                    if (containsNeedle(item, needle)) {
+                        results.add(copier.apply(item));
+                    }
+                }
+            }
+            results.sort(order);
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private void apply(Runnable change) {
+        lock.writeLock().lock();
+        try {
+            if (loading) {
+                pendingChanges.add(change);
+            }
+            if (warm) {
+                change.run();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private void replace(T item) {
+        int id = idOf.applyAsInt(item);
+        T existing = items.get(id);
+        if (existing != null && fieldsOf.apply(existing).equals(fieldsOf.apply(item))) {
+            // Searchable text unchanged (e.g. only availability changed): no posting updates
+            items.put(id, item);
+            return;
+        }
+        unindex(id);
+        index(item);
+    }
+    
+    private boolean inAll(List<PostingList> lists, int id) {
+        for (int i = 1; i < lists.size(); i++) {
+            if (!lists.get(i).contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private boolean containsNeedle(T item, String needle) {
+        for (String field : fieldsOf.apply(item)) {
+            if (field != null && normalize(field).contains(needle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void index(T item) {
+        int id = idOf.applyAsInt(item);
+        items.put(id, item);
+        for (long gram : trigramsOf(item)) {
+            postings.computeIfAbsent(gram, g -> new PostingList()).add(id);
+        }
+    }
+    
+    private void unindex(int id) {
+        T existing = items.remove(id);
+        if (existing == null) {
+            return;
+        }
+        for (long gram : trigramsOf(existing)) {
+            PostingList list = postings.get(gram);
+            if (list != null) {
+                list.remove(id);
+                if (list.size() == 0) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+    
+    private Set<Long> trigramsOf(T item) {
+        Set<Long> grams = new HashSet<>();
+        for (String field : fieldsOf.apply(item)) {
+            if (field != null) {
+                grams.addAll(trigrams(normalize(field)));
+            }
+        }
+        return grams;
+    }
+    
+    private static Set<Long> trigrams(String text) {
+        Set<Long> grams = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            grams.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+        }
+        return grams;
+    }
+    
+    // Folds ASCII letters only, as SQLite's LIKE does
+    private static String normalize(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+    
+    /**
+     * Sorted set of ids backed by a growable int array. Ids are mostly added in
+     * increasing order, so adds are usually appends.
+     */
+    private static class PostingList {
+        private int[] ids = new int[4];
+        private int size;
+        
+        int size() {
+            return size;
+        }
+        
+        int get(int index) {
+            return ids[index];
+        }
+        
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+        
+        void add(int id) {
+            int pos = size == 0 || ids[size - 1] < id ? -(size + 1) : Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                return;
+            }
+            pos = -(pos + 1);
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+        }
+        
+        void remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                return;
+            }
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            size--;
+        }
+    }
+}
+
+// util/RowHandler.java
+package util;
+
+import java.sql.SQLException;
+
+/**
+ * Receives rows one at a time from a streaming DAO read while the ResultSet is
+ * still open. Rows are not retained by the DAO, so memory use stays constant
+ * however many rows the query returns.
+ */
+@FunctionalInterface
+public interface RowHandler<T> {
+    /**
+     * @return true to keep reading, false to stop and close the ResultSet early
+     */
+    boolean handle(T row) throws SQLException;
+}
+
+// util/LruCache.java
+package util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded, thread-safe cache that evicts the least recently used entry
+ * once maxSize is reached, and counts hits, misses and evictions.
+ * 
+ * Loads are guarded by a stamp: take stamp() before reading from the database and
+ * pass it to putIfUnchanged(), which drops the value if anything was invalidated in
+ * between. That stops a slow reader from re-caching a row another thread just changed.
+ */
+public class LruCache<K, V> {
+    private final int maxSize;
+    private final LinkedHashMap<K, V> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    
+    public LruCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1");
+        }
+        this.maxSize = maxSize;
+        // accessOrder = true: iteration order runs from least to most recently used
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > LruCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+    
+    public synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+    
+    public synchronized long stamp() {
+        return invalidations;
+    }
+    
+    /**
+     * Caches the value only if nothing has been invalidated since the stamp was taken.
+     */
+    public synchronized void putIfUnchanged(K key, V value, long stamp) {
+        if (invalidations == stamp) {
+            entries.put(key, value);
+        }
+    }
+    
+    public synchronized void invalidate(K key) {
+        invalidations++;
+        entries.remove(key);
+    }
+    
+    public synchronized void clear() {
+        invalidations++;
+        entries.clear();
+    }
+    
+    public synchronized CacheStats stats() {
+        return new CacheStats(hits, misses, evictions, entries.size(), maxSize);
+    }
+}
+
+// util/CacheStats.java
+package util;
+
+/**
+ * Point-in-time counters of a cache.
+ */
+public class CacheStats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int size;
+    private final int maxSize;
+    
+    public CacheStats(long hits, long misses, long evictions, int size, int maxSize) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.size = size;
+        this.maxSize = maxSize;
+    }
+    
+    public long getHits() { return hits; }
+    
+    public long getMisses() { return misses; }
+    
+    public long getEvictions() { return evictions; }
+    
+    public int getSize() { return size; }
+    
+    public int getMaxSize() { return maxSize; }
+    
+    public double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0.0 : (double) hits / requests;
+    }
+    
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions +
+               ", size=" + size + "/" + maxSize + ", hitRate=" + String.format("%.2f", getHitRate()) + "}";
+    }
+}
+
+// util/ChangeListener.java
+package util;
+
+import java.util.Set;
+
+/**
+ * Notified by ChangeMonitor when rows of a table were changed through any
+ * connection, including other desks sharing the same database file.
+ */
+public interface ChangeListener {
+    /**
+     * Called with the ids of the rows that were inserted, updated or deleted.
+     */
+    void rowsChanged(Set<Integer> rowIds);
+    
+    /**
+     * Called when too much changed, or changes were missed, to name individual rows;
+     * anything derived from the table should be rebuilt.
+     */
+    void tableChanged();
+}
+
+// util/ChangeMonitor.java
+package util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects writes made to library.db by other connections and tells the in-process
+ * caches which rows to drop.
+ * 
+ * Triggers on books, members, users and loans append (table, row id) to change_log.
+ * The monitor polls PRAGMA data_version on its own connection, which only changes
+ * when some other connection has committed, and only then reads the change_log
+ * entries it has not seen yet. Idle polls therefore cost a single PRAGMA.
+ */
+public class ChangeMonitor {
+    private static final long POLL_MS = Long.getLong("library.coherence.pollMs", 1_000L);
+    // Entries kept in change_log; a desk that falls further behind than this resyncs fully
+    private static final int RETAINED_CHANGES = Integer.getInteger("library.coherence.retainedChanges", 10_000);
+    private static final long PRUNE_INTERVAL_MS = 10 * 60 * 1_000L;
+    // Above this many changed rows in one table per poll, a full rebuild is cheaper than row refreshes
+    private static final int TABLE_RESYNC_THRESHOLD = 500;
+    
+    private static final Map<String, List<ChangeListener>> LISTENERS = new ConcurrentHashMap<>();
+    
+    private static ScheduledExecutorService poller;
+    private static Connection conn;
+    private static long lastDataVersion = -1;
+    private static long lastSeq = -1;
+    private static long lastPruneMillis;
+    
+    public static void addListener(String table, ChangeListener listener) {
+        LISTENERS.computeIfAbsent(table, t -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+    
+    /**
+     * Records the current position in change_log and starts polling in the background.
+     */
+    public static synchronized void start() {
+        if (poller != null) {
+            return;
+        }
+        poll();
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-change-monitor");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(ChangeMonitor::poll, POLL_MS, POLL_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    public static synchronized void stop() {
+        if (poller != null) {
+            poller.shutdownNow();
+            poller = null;
+        }
+        closeConnection();
+    }
+    
+    /**
+     * Checks for new changes once. Safe to call directly, e.g. right before showing
+     * data that must be current.
+     */
+    public static synchronized void poll() {
+        try {
+            if (conn == null || conn.isClosed()) {
+                conn = DBConnection.openDedicatedConnection();
+                lastDataVersion = -1;
+            }
+            
+            long version = queryLong("PRAGMA data_version");
+            if (version == lastDataVersion) {
+                return;
+            }
+            lastDataVersion = version;
+            
+            if (lastSeq < 0) {
+                // First poll: everything before now is already reflected in what we load
+                lastSeq = queryLong("SELECT COALESCE(MAX(seq), 0) FROM change_log");
+                return;
+            }
+            
+            long oldestSeq = queryLong("SELECT COALESCE(MIN(seq), 0) FROM change_log");
+            if (oldestSeq > lastSeq + 1) {
+                // Entries we never saw were pruned; we can't tell which rows changed
+                lastSeq = queryLong("SELECT COALESCE(MAX(seq), 0) FROM change_log");
+                for (String table : LISTENERS.keySet()) {
+                    notifyTableChanged(table);
+                }
+                return;
+            }
+            
+            dispatch(readChangesSince(lastSeq));
+            pruneIfDue();
+        } catch (SQLException e) {
+            System.err.println("Error polling for database changes: " + e.getMessage());
+            closeConnection();
+        }
+    }
+    
+    private static Map<String, Set<Integer>> readChangesSince(long seq) throws SQLException {
+        String sql = "SELECT seq, table_name, row_id FROM change_log WHERE seq > ? ORDER BY seq";
+        Map<String, Set<Integer>> changes = new LinkedHashMap<>();
+        
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, seq);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    lastSeq = rs.getLong("seq");
+                    changes.computeIfAbsent(rs.getString("table_name"), t -> new HashSet<>())
+                           .add(rs.getInt("row_id"));
+                }
+            }
+        }
+        return changes;
+    }
+    
+    private static void dispatch(Map<String, Set<Integer>> changes) {
+        for (Map.Entry<String, Set<Integer>> entry : changes.entrySet()) {
+            if (entry.getValue().size() > TABLE_RESYNC_THRESHOLD) {
+                notifyTableChanged(entry.getKey());
+                continue;
+            }
+            for (ChangeListener listener : listenersFor(entry.getKey())) {
+                try {
+                    listener.rowsChanged(entry.getValue());
+                } catch (RuntimeException e) {
+                    System.err.println("Error handling changes to " + entry.getKey() + ": " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+    
+    private static void notifyTableChanged(String table) {
+        for (ChangeListener listener : listenersFor(table)) {
+            try {
+                listener.tableChanged();
+            } catch (RuntimeException e) {
+                System.err.println("Error resyncing " + table + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    private static List<ChangeListener> listenersFor(String table) {
+        List<ChangeListener> listeners = LISTENERS.get(table);
+        return listeners == null ? Collections.<ChangeListener>emptyList() : listeners;
+    }
+    
+    private static void pruneIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastPruneMillis < PRUNE_INTERVAL_MS) {
+            return;
+        }
+        lastPruneMillis = now;
+        String sql = "DELETE FROM change_log WHERE seq <= (SELECT MAX(seq) FROM change_log) - ?";
+        try {
+            DBConnection.write(c -> {
+                try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+                    pstmt.setInt(1, RETAINED_CHANGES);
+                    return pstmt.executeUpdate();
+                }
+            });
+        } catch (SQLException e) {
+            System.err.println("Error pruning change log: " + e.getMessage());
+        }
+    }
+    
+    private static long queryLong(String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+    
+    private static void closeConnection() {
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing change monitor connection: " + e.getMessage());
+            }
+            conn = null;
+        }
+    }
+}
+
+// util/ReportCache.java
+package util;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caches computed report results by report name and parameters.
+ * 
+ * Each result records the generation of every table it was computed from.
+ * Writers call invalidate(table) after committing, which bumps that table's
+ * generation, so later lookups see the result as stale and recompute it; writes
+ * from other desks arrive the same way through ChangeMonitor. Generations are
+ * read before computing, so a write that commits mid-computation still retires
+ * the result. Results also expire after library.reports.cacheTtlMs (default five
+ * minutes) as a backstop for writes that bypass the application.
+ */
+public class ReportCache {
+    private static final long TTL_MS = Long.getLong("library.reports.cacheTtlMs", 5 * 60 * 1_000L);
+    private static final int MAX_ENTRIES = Integer.getInteger("library.reports.cacheSize", 256);
+    
+    private static final ConcurrentHashMap<String, AtomicLong> GENERATIONS = new ConcurrentHashMap<>();
+    private static final LruCache<String, Entry> ENTRIES = new LruCache<>(MAX_ENTRIES);
+    
+    static {
+        for (String table : new String[] {"books", "members", "loans"}) {
+            ChangeMonitor.addListener(table, new ChangeListener() {
+                @Override
+                public void rowsChanged(Set<Integer> ids) {
+                    invalidate(table);
+                }
+                
+                @Override
+                public void tableChanged() {
+                    invalidate(table);
+                }
+            });
+        }
+    }
+    
+    private ReportCache() {
+    }
+    
+    /**
+     * Returns the cached result for key if none of its tables changed since it was
+     * computed and it has not expired; otherwise computes, caches and returns it.
+     * Callers must not modify the returned value.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(String key, String[] tables, Supplier<T> compute) {
+        long[] generations = new long[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            generations[i] = generation(tables[i]).get();
+        }
+        
+        long now = System.currentTimeMillis();
+        Entry entry = ENTRIES.get(key);
+        if (entry != null && entry.isCurrent(generations, now)) {
+            return (T) entry.value;
+        }
+        
+        T value = compute.get();
+        if (value != null) {
+            ENTRIES.put(key, new Entry(value, generations, now + TTL_MS));
+        }
+        return value;
+    }
+    
+    public static void invalidate(String... tables) {
+        for (String table : tables) {
+            generation(table).incrementAndGet();
+        }
+    }
+    
+    public static void clear() {
+        ENTRIES.clear();
+    }
+    
+    private static AtomicLong generation(String table) {
+        return GENERATIONS.computeIfAbsent(table, t -> new AtomicLong());
+    }
+    
+    private static final class Entry {
+        private final Object value;
+        private final long[] generations;
+        private final long expiresAt;
+        
+        Entry(Object value, long[] generations, long expiresAt) {
+            this.value = value;
+            this.generations = generations;
+            this.expiresAt = expiresAt;
+        }
+        
+        boolean isCurrent(long[] current, long now) {
+            return now < expiresAt && Arrays.equals(generations, current);
+        }
+    }
+}
+
+// util/TopKCounter.java
+package util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving heavy-hitter counter over int keys: tracks the most frequent keys
+ * of a stream in a fixed number of slots.
+ * 
+ * Slots are kept sorted by count, highest first. A key that is not tracked takes
+ * over the lowest slot and inherits its count as its error bound, so counts are
+ * never under-estimated and over-estimated by at most getError(). Any key seen
+ * more than n / capacity times in a stream of n is guaranteed to be tracked.
+ * offer() is O(log capacity) and top(n) is O(n).
+ */
+public class TopKCounter {
+    private final int capacity;
+    private final int[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final Map<Integer, Integer> slots = new HashMap<>();
+    private int size;
+    
+    public TopKCounter(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.keys = new int[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+    }
+    
+    public synchronized void offer(int key) {
+        Integer slot = slots.get(key);
+        int index;
+        if (slot != null) {
+            index = slot;
+        } else if (size < capacity) {
+            index = size++;
+            keys[index] = key;
+            counts[index] = 0;
+            errors[index] = 0;
+            slots.put(key, index);
+        } else {
+            // Replace the current minimum, which sits in the last slot
+            index = size - 1;
+            slots.remove(keys[index]);
+            keys[index] = key;
+            errors[index] = counts[index];
+            slots.put(key, index);
+        }
+        
+        // Swap with the first slot of equal count so that incrementing keeps the order
+        int first = firstWithCount(counts[index], index);
+        if (first != index) {
+            swap(first, index);
+            index = first;
+        }
+        counts[index]++;
+    }
+    
+    /**
+     * The n highest counts, highest first.
+     */
+    public synchronized List<Entry> top(int n) {
+        int limit = Math.min(n, size);
+        List<Entry> entries = new ArrayList<>(limit);
+        for (int i = 0; i < limit; i++) {
+            entries.add(new Entry(keys[i], counts[i], errors[i]));
+        }
+        return entries;
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    public synchronized void clear() {
+        slots.clear();
+        size = 0;
+    }
+    
+    private int firstWithCount(long count, int upTo) {
+        int low = 0;
+        int high = upTo;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (counts[mid] > count) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    private void swap(int a, int b) {
+        int key = keys[a];
+        long count = counts[a];
+        long error = errors[a];
+        keys[a] = keys[b];
+        counts[a] = counts[b];
+        errors[a] = errors[b];
+        keys[b] = key;
+        counts[b] = count;
+        errors[b] = error;
+        slots.put(keys[a], a);
+        slots.put(keys[b], b);
+    }
+    
+    public static final class Entry {
+        private final int key;
+        private final long count;
+        private final long error;
+        
+        Entry(int key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+        
+        public int getKey() { return key; }
+        
+        /** Estimated count; the true count lies in [count - error, count]. */
+        public long getCount() { return count; }
+        
+        public long getError() { return error; }
+    }
+}
+
+// ============== MODEL PACKAGE ==============
+
+// model/User.java
+package model;
+
+/**
+ * User model class
+ */
+public class User {
+    private int id;
+    private String username;
+    private String password;
+    private String role;
+    
+    // Default constructor
+    public User() {}
+    
+    // Parameterized constructor
+    public User(String username, String password, String role) {
+        this.username = username;
+        this.password = password;
+        this.role = role;
+    }
+    
+    // Getters and setters
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+    
+    public String getUsername() { return username; }
+    public void setUsername(String username) { this.username = username; }
+    
+    public String getPassword() { return password; }
+    public void setPassword(String password) { this.password = password; }
+    
+    public String getRole() { return role; }
+    public void setRole(String role) { this.role = role; }
+    
+    @Override
+    public String toString() {
+        return "User{id=" + id + ", username='" + username + "', role='" + role + "'}";
+    }
+}
+
+// model/Book.java
+package model;
+
+/**
+ * Book model class
+ */
+public class Book {
+    private int id;
+    private String title;
+    private String author;
+    private String isbn;
+    private boolean available;
+    private int loanPeriodDays = DEFAULT_LOAN_PERIOD_DAYS;
+    
+    public static final int DEFAULT_LOAN_PERIOD_DAYS = 14;
+    
+    // Default constructor
+    public Book() {}
+    
+    // Parameterized constructor
+    public Book(String title, String author, String isbn) {
+        this.title = title;
+        this.author = author;
+        this.isbn = isbn;
+        this.available = true;
+    }
+    
+    // Getters and setters
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+    
+    public String getTitle() { return title; }
+    public void setTitle(String title) { this.title = title; }
+    
+    public String getAuthor() { return author; }
+    public void setAuthor(String author) { this.author = author; }
+    
+    public String getIsbn() { return isbn; }
+    public void setIsbn(String isbn) { this.isbn = isbn; }
+    
+    public boolean isAvailable() { return available; }
+    public void setAvailable(boolean available) { this.available = available; }
+    
+    /** Days a loan of this book runs before it is due. */
+    public int getLoanPeriodDays() { return loanPeriodDays; }
+    public void setLoanPeriodDays(int loanPeriodDays) { this.loanPeriodDays = loanPeriodDays; }
+    
+    @Override
+    public String toString() {
+        return "Book{id=" + id + ", title='" + title + "', author='" + author + 
+               "', isbn='" + isbn + "', available=" + available + ", loanPeriodDays=" + loanPeriodDays + "}";
+    }
+}
+
+// model/Member.java
+package model;
+
+/**
+ * Member model class
+ */
+public class Member {
+    private int id;
+    private String name;
+    private String email;
+    private String phone;
+    private String address;
+    
+    // Default constructor
+    public Member() {}
+    
+    // Parameterized constructor
+    public Member(String name, String email) {
+        this.name = name;
+        this.email = email;
+    }
+    
+    // Getters and setters
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+    
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    
+    public String getEmail() { return email; }
+    public void setEmail(String email) { this.email = email; }
+    
+    public String getPhone() { return phone; }
+    public void setPhone(String phone) { this.phone = phone; }
+    
+    public String getAddress() { return address; }
+    public void setAddress(String address) { this.address = address; }
+    
+    @Override
+    public String toString() {
+        return "Member{id=" + id + ", name='" + name + "', email='" + email + "'}";
+    }
+}
+
+// model/PageCursor.java
+package model;
+
+/**
+ * Position after the last row of a page: the sort key (title or name) and the id
+ * that breaks ties between rows with the same sort key.
+ */
+public class PageCursor {
+    private final String sortKey;
+    private final int id;
+    
+    public PageCursor(String sortKey, int id) {
+        this.sortKey = sortKey;
+        this.id = id;
+    }
+    
+    public String getSortKey() { return sortKey; }
+    
+    public int getId() { return id; }
+    
+    @Override
+    public String toString() {
+        return "PageCursor{sortKey='" + sortKey + "', id=" + id + "}";
+    }
+}
+
+// model/Page.java
+package model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * One page of a keyset-paginated listing. Pass getNextCursor() back to fetch the
+ * following page; it is null on the last page.
+ */
+public class Page<T> {
+    private final List<T> items;
+    private final PageCursor nextCursor;
+    
+    public Page(List<T> items, PageCursor nextCursor) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextCursor = nextCursor;
+    }
+    
+    /**
+     * Builds a page from a query that fetched up to pageSize + 1 rows; the extra
+     * row only tells us that another page exists and is dropped.
+     */
+    public static <T> Page<T> fromLookahead(List<T> rows, int pageSize, Function<T, PageCursor> cursorOf) {
+        if (rows.size() <= pageSize) {
+            return new Page<>(rows, null);
+        }
+        List<T> items = rows.subList(0, pageSize);
+        return new Page<>(items, cursorOf.apply(items.get(pageSize - 1)));
+    }
+    
+    public List<T> getItems() { return items; }
+    
+    public PageCursor getNextCursor() { return nextCursor; }
+    
+    public boolean hasNext() { return nextCursor != null; }
+    
+    @Override
+    public String toString() {
+        return "Page{items=" + items.size() + ", nextCursor=" + nextCursor + "}";
+    }
+}
+
+// ============== DAO PACKAGE ==============
+
+// dao/UserDAO.java
+package dao;
+
+import model.User;
+import util.CacheStats;
+import util.ChangeListener;
+import util.ChangeMonitor;
+import util.DBConnection;
+import util.LruCache;
+
+import java.sql.*;
+import java.util.Set;
+
+/**
+ * Data Access Object for User operations
+ */
+public class UserDAO {
+    // Read-through cache for getUserByUsername, keyed by username
+    private static final LruCache<String, User> CACHE =
+            new LruCache<>(Integer.getInteger("library.cache.users.size", 200));
+    
+    public static CacheStats getCacheStats() {
+        return CACHE.stats();
+    }
+    
+    static {
+        // The cache is keyed by username, not id, and users rarely change: drop it all
+        ChangeMonitor.addListener("users", new ChangeListener() {
+            @Override
+            public void rowsChanged(Set<Integer> userIds) {
+                CACHE.clear();
+            }
+            
+            @Override
+            public void tableChanged() {
+                CACHE.clear();
+            }
+        });
+    }
+    
+    /**
+     * Returns the user from the cache when present, otherwise reads it and caches it.
+     */
+    public User getUserByUsername(String username) {
+        User cached = CACHE.get(username);
+        if (cached != null) {
+            return copyOf(cached);
+        }
+        
+        long stamp = CACHE.stamp();
+        User user = loadUserByUsername(username);
+        if (user != null) {
+            CACHE.putIfUnchanged(username, copyOf(user), stamp);
+        }
+        return user;
+    }
+    
+    /**
+     * Reads the user straight from the database, bypassing the cache, for callers
+     * that must see the current row.
+     */
+    public User getUserById(int id) {
+        String sql = "SELECT * FROM users WHERE id = ?";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setInt(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    User user = new User();
+                    user.setId(rs.getInt("id"));
+                    user.setUsername(rs.getString("username"));
+                    user.setPassword(rs.getString("password"));
+                    user.setRole(rs.getString("role"));
+                    return user;
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error retrieving user: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return null;
+    }
+    
+    private User loadUserByUsername(String username) {
+        User user = null;
+        String sql = "SELECT * FROM users WHERE username = ?";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setString(1, username);
+            ResultSet rs = pstmt.executeQuery();
+            
+            if (rs.next()) {
+                user = new User();
+                user.setId(rs.getInt("id"));
+                user.setUsername(rs.getString("username"));
+                user.setPassword(rs.getString("password"));
+                user.setRole(rs.getString("role"));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error retrieving user: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return user;
+    }
+    
+    public boolean addUser(User user) {
+        String sql = "INSERT INTO users(username, password, role) VALUES(?, ?, ?)";
+        
+        try {
+            return DBConnection.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, user.getUsername());
+                    pstmt.setString(2, user.getPassword());
+                    pstmt.setString(3, user.getRole());
+                    
+                    int affectedRows = pstmt.executeUpdate();
+                    return affectedRows > 0;
+                }
+            });
+        } catch (SQLException e) {
+            System.err.println("Error adding user: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+    
+    /**
+     * Replaces a user's password hash, e.g. when AuthService re-hashes it at a new cost.
+     */
+    public boolean updatePassword(String username, String passwordHash) {
+        String sql = "UPDATE users SET password = ? WHERE username = ?";
+        
+        try {
+            boolean updated = DBConnection.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, passwordHash);
+                    pstmt.setString(2, username);
+                    return pstmt.executeUpdate() > 0;
+                }
+            });
+            CACHE.invalidate(username);
+            return updated;
+        } catch (SQLException e) {
+            System.err.println("Error updating password: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+    
+    public boolean userExists(String username) {
+        return getUserByUsername(username) != null;
+    }
+    
+    private static User copyOf(User user) {
+        User copy = new User(user.getUsername(), user.getPassword(), user.getRole());
+        copy.setId(user.getId());
+        return copy;
+    }
+}
+
+// dao/BookDAO.java
+package dao;
+
+import model.Book;
+import model.Page;
+import model.PageCursor;
+import util.CacheStats;
+import util.ChangeListener;
+import util.ChangeMonitor;
+import util.DBConnection;
+import util.LruCache;
+import util.ReportCache;
+import util.RowHandler;
+import util.SearchMode;
+import util.TrigramIndex;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Data Access Object for Book operations
+ */
+public class BookDAO {
+    // One matching rule for every book search (see SearchMode); in MEMORY mode the
+    // trigram index is shared by all BookDAO instances
+    private static final SearchMode SEARCH_MODE = SearchMode.configured();
+    private static final boolean FULL_TEXT_SEARCH = SEARCH_MODE == SearchMode.FTS;
+    private static final boolean MEMORY_INDEX = SEARCH_MODE == SearchMode.MEMORY;
+    private static final TrigramIndex<Book> SEARCH_INDEX = new TrigramIndex<>(
+            Book::getId,
+            book -> Arrays.asList(book.getTitle(), book.getAuthor(), book.getIsbn()),
+            Comparator.comparing(Book::getTitle).thenComparingInt(Book::getId),
+            BookDAO::copyOf);
+    
+    // Shared availability bitmap backing isAvailable() and countAvailable()
+    private static final AvailabilityIndex AVAILABILITY = new AvailabilityIndex();
+    
+    // Read-through cache for getBookById, invalidated by every write to a book
+    private static final LruCache<Integer, Book> CACHE =
+            new LruCache<>(Integer.getInteger("library.cache.books.size", 1000));
+    
+    public static CacheStats getCacheStats() {
+        return CACHE.stats();
+    }
+    
+    static {
+        // Books changed through other connections (e.g. another desk) are re-read from the database
+        ChangeMonitor.addListener("books", new ChangeListener() {
+            @Override
+            public void rowsChanged(Set<Integer> bookIds) {
+                BookDAO dao = new BookDAO();
+                for (int id : bookIds) {
+                    CACHE.invalidate(id);
+                    Book book = dao.loadBookById(id);
+                    if (book == null) {
+                        SEARCH_INDEX.remove(id);
+                        AVAILABILITY.remove(id);
+                    } else {
+                        SEARCH_INDEX.put(book);
+                        AVAILABILITY.set(id, book.isAvailable());
+                    }
+                }
+            }
+            
+            @Override
+            public void tableChanged() {
+                CACHE.clear();
+                AVAILABILITY.invalidate();
+                warmUpSearchIndex();
+            }
+        });
+    }
+    
+    /**
+     * Builds the in-memory search index from the books table, if it is enabled.
+     * Until this finishes, searches go to SQLite.
+     */
+    public static void warmUpSearchIndex() {
+        if (!MEMORY_INDEX) {
+            return;
+        }
+        try {
+            SEARCH_INDEX.load(() -> new BookDAO().getAllBooks());
+        } catch (Exception e) {
+            System.err.println("Error building book search index: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    public boolean addBook(Book book) {
+        String sql = "INSERT INTO books(title, author, isbn, available, loan_period_days) VALUES(?, ?, ?, ?, ?)";
+        
+        try {
+            boolean added = DBConnection.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    pstmt.setString(1, book.getTitle());
+                    pstmt.setString(2, book.getAuthor());
+                    pstmt.setString(3, book.getIsbn());
+                    pstmt.setBoolean(4, book.isAvailable());
+                    pstmt.setInt(5, book.getLoanPeriodDays());
+                    
+                    int affectedRows = pstmt.executeUpdate();
+                    if (affectedRows == 0) {
+                        return false;
+                    }
+                    try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                        if (keys.next()) {
+                            book.setId(keys.getInt(1));
+                        }
+                    }
+                    Book indexed = copyOf(book);
+                    DBConnection.afterCommit(() -> {
+                        SEARCH_INDEX.put(indexed);
+                        AVAILABILITY.set(indexed.getId(), indexed.isAvailable());
+                    });
+                    return true;
+                }
+            });
+            if (added) {
+                ReportCache.invalidate("books");
+            }
+            return added;
+        } catch (SQLException e) {
+            System.err.println("Error adding book: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+    
+    public boolean updateBook(Book book) {
+        String sql = "UPDATE books SET title = ?, author = ?, isbn = ?, available = ?, loan_period_days = ? WHERE id = ?";
+        
+        try {
+            boolean updated = DBConnection.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, book.getTitle());
+                    pstmt.setString(2, book.getAuthor());
+                    pstmt.setString(3, book.getIsbn());
+                    pstmt.setBoolean(4, book.isAvailable());
+                    pstmt.setInt(5, book.getLoanPeriodDays());
+                    pstmt.setInt(6, book.getId());
+                    
+                    int affectedRows = pstmt.executeUpdate();
+                    if (affectedRows == 0) {
+                        return false;
+                    }
+                    Book indexed = copyOf(book);
+                    DBConnection.afterCommit(() -> {
+                        SEARCH_INDEX.put(indexed);
+                        AVAILABILITY.set(indexed.getId(), indexed.isAvailable());
+                    });
+                    return true;
+                }
+            });
+            if (updated) {
+                CACHE.invalidate(book.getId());
+                ReportCache.invalidate("books");
+            }
+            return updated;
+        } catch (SQLException e) {
+            System.err.println("Error updating book: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+    
+    public boolean deleteBook(int id) {
+        String sql = "DELETE FROM books WHERE id = ?";
+        
+        try {
+            boolean deleted = DBConnection.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setInt(1, id);
+                    int affectedRows = pstmt.executeUpdate();
+                    if (affectedRows == 0) {
+                        return false;
+                    }
+                    DBConnection.afterCommit(() -> {
+                        SEARCH_INDEX.remove(id);
+                        AVAILABILITY.remove(id);
+                    });
+                    return true;
+                }
+            });
+            if (deleted) {
+                CACHE.invalidate(id);
+                ReportCache.invalidate("books");
+            }
+            return deleted;
+        } catch (SQLException e) {
+            System.err.println("Error deleting book: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+    
+    public List<Book> getAllBooks() {
+        List<Book> books = new ArrayList<>();
+        String sql = "SELECT * FROM books ORDER BY title";
+        
+        try (Connection conn = DBConnection.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            
+            while (rs.next()) {
+                books.add(mapBook(rs));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error retrieving books: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return books;
+    }
+    
+    /**
+     * Streams every book, ordered by title, to the handler without building a list.
+     * The ResultSet stays open only for the duration of the call.
+     * 
+     * @return the number of rows handed to the handler
+     */
+    public long streamAllBooks(RowHandler<Book> handler) throws SQLException {
+        String sql = "SELECT * FROM books ORDER BY title";
+        long count = 0;
+        
+        try (Connection conn = DBConnection.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            
+            while (rs.next()) {
+                count++;
+                if (!handler.handle(mapBook(rs))) {
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Returns one page of books ordered by title, starting after the cursor
+     * (or from the start when it is null). Seeks through idx_books_title, so every
+     * page costs the same no matter how deep into the catalog it is.
+     */
+    public Page<Book> getBooksPage(PageCursor after, int pageSize) {
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT * FROM books" + keysetClause(after, " WHERE ", params) +
+                     " ORDER BY title, id LIMIT ?";
+        return readPage(sql, params, pageSize);
+    }
+    
+    /**
+     * Cursor of the book at offset in title order, or null past the end. Walks
+     * idx_books_title without reading the rows, for jumping straight to a page.
+     */
+    public PageCursor getBookCursorAt(int offset) {
+        String sql = "SELECT title, id FROM books ORDER BY title, id LIMIT 1 OFFSET ?";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setInt(1, offset);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return new PageCursor(rs.getString(1), rs.getInt(2));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error locating books page: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return null;
+    }
+    
+    /**
+     * Number of books that sort before cursor, i.e. its position in title order.
+     */
+    public int countBooksBefore(PageCursor cursor) {
+        String sql = "SELECT COUNT(*) FROM books WHERE (title, id) < (?, ?)";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setString(1, cursor.getSortKey());
+            pstmt.setInt(2, cursor.getId());
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return rs.getInt(1);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error counting books: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return 0;
+    }
+    
+    /**
+     * Paged variant of searchBooks. Pages are ordered by title rather than by
+     * relevance so that a cursor can continue where the previous page stopped.
+     */
+    public Page<Book> searchBooksPage(String keyword, PageCursor after, int pageSize) {
+        String ftsQuery = toFtsQuery(keyword);
+        if (ftsQuery == null) {
+            return getBooksPage(after, pageSize);
+        }
+        
+        List<Object> params = new ArrayList<>();
+        String filter;
+        if (FULL_TEXT_SEARCH) {
+            filter = "id IN (SELECT rowid FROM books_fts WHERE books_fts MATCH ?)";
+            params.add(ftsQuery);
+        } else {
+            filter = "(title LIKE ? ESCAPE '\\' OR author LIKE ? ESCAPE '\\' OR isbn LIKE ? ESCAPE '\\')";
+            String queryParam = SearchMode.containsPattern(keyword);
+            params.add(queryParam);
+            params.add(queryParam);
+            params.add(queryParam);
+        }
+        String sql = "SELECT * FROM books WHERE " + filter + keysetClause(after, " AND ", params) +
+                     " ORDER BY title, id LIMIT ?";
+        return readPage(sql, params, pageSize);
+    }
+    
+    private static String keysetClause(PageCursor after, String joiner, List<Object> params) {
+        if (after == null) {
+            return "";
+        }
+        params.add(after.getSortKey());
+        params.add(after.getId());
+        return joiner + "(title, id) > (?, ?)";
+    }
+    
+    private Page<Book> readPage(String sql, List<Object> params, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
+        }
+        List<Book> books = new ArrayList<>();
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            int index = 1;
+            for (Object param : params) {
+                pstmt.setObject(index++, param);
+            }
+            // One row past the page tells us whether there is a next page
+            pstmt.setInt(index, pageSize + 1);
+            
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                books.add(mapBook(rs));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error retrieving books page: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return Page.fromLookahead(books, pageSize, book -> new PageCursor(book.getTitle(), book.getId()));
+    }
+    
+    /**
+     * Searches title, author and ISBN by the rule of the search mode. In "memory"
+     * mode the trigram index and the LIKE scan it falls back to find the same books
+     * in the same order, so results do not depend on whether the index is warm.
+     * A blank keyword returns every book.
+     */
+    public List<Book> searchBooks(String keyword) {
+        if (MEMORY_INDEX) {
+            // null when the index is still cold or the keyword is too short for trigrams
+            List<Book> indexed = SEARCH_INDEX.search(keyword);
+            return indexed != null ? indexed : searchBooksLike(keyword);
+        }
+        
+        String ftsQuery = toFtsQuery(keyword);
+        if (FULL_TEXT_SEARCH && ftsQuery != null) {
+            try {
+                return searchBooksFullText(ftsQuery);
+            } catch (SQLException e) {
+                // e.g. a database created before books_fts existed
+                System.err.println("Full-text search failed, falling back to LIKE: " + e.getMessage());
+            }
+        }
+        return searchBooksLike(keyword);
+    }
+    
+    private List<Book> searchBooksFullText(String ftsQuery) throws SQLException {
+        List<Book> books = new ArrayList<>();
+        // bm25 weights: a hit in the title counts more than one in the author, which counts more than the ISBN
+        String sql = "SELECT b.* FROM books_fts f JOIN books b ON b.id = f.rowid " +
+                     "WHERE books_fts MATCH ? " +
+                     "ORDER BY bm25(books_fts, 10.0, 5.0, 1.0), b.title";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setString(1, ftsQuery);
+            
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                books.add(mapBook(rs));
+            }
+        }
+        return books;
+    }
+    
+    private List<Book> searchBooksLike(String keyword) {
+        List<Book> books = new ArrayList<>();
+        String sql = "SELECT * FROM books WHERE title LIKE ? ESCAPE '\\' OR author LIKE ? ESCAPE '\\' " +
+                     "OR isbn LIKE ? ESCAPE '\\' ORDER BY title, id";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            String queryParam = SearchMode.containsPattern(keyword);
+            pstmt.setString(1, queryParam);
+            pstmt.setString(2, queryParam);
+            pstmt.setString(3, queryParam);
             
-            if (rs.next()) {
-                user = new User();
-                user.setId(rs.getInt("id"));
-                user.setUsername(rs.getString("username"));
-                user.setPassword(rs.getString("password"));
-                user.setRole(rs.getString("role"));
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                books.add(mapBook(rs));
             }
         } catch (SQLException e) {
-            System.err.println("Error retrieving user: " + e.getMessage());
+            System.err.println("Error searching books: " + e.getMessage());
             e.printStackTrace();
         }
-        return user;
+        return books;
     }
     
-    public boolean addUser(User user) {
-        String sql = "INSERT INTO users(username, password, role) VALUES(?, ?, ?)";
+    /**
+     * Returns the book from the cache when present, otherwise reads it and caches it.
+     */
+    public Book getBookById(int id) {
+        Book cached = CACHE.get(id);
+        if (cached != null) {
+            return copyOf(cached);
+        }
+        
+        long stamp = CACHE.stamp();
+        Book book = loadBookById(id);
+        if (book != null) {
+            CACHE.putIfUnchanged(id, copyOf(book), stamp);
+        }
+        return book;
+    }
+    
+    private Book loadBookById(int id) {
+        Book book = null;
+        String sql = "SELECT * FROM books WHERE id = ?";
         
         try (Connection conn = DBConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
-            pstmt.setString(1, user.getUsername());
-            pstmt.setString(2, user.getPassword());
-            pstmt.setString(3, user.getRole());
+            pstmt.setInt(1, id);
+            ResultSet rs = pstmt.executeQuery();
             
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+            if (rs.next()) {
+                book = mapBook(rs);
+            }
         } catch (SQLException e) {
-            System.err.println("Error adding user: " + e.getMessage());
+            System.err.println("Error retrieving book: " + e.getMessage());
             e.printStackTrace();
         }
-        return false;
+        return book;
     }
     
-    public boolean userExists(String username) {
-        return getUserByUsername(username) != null;
+    /**
+     * Turns what the user typed into an FTS5 query: every word must match, and the
+     * last part of each word may be a prefix ("harr pot" finds "Harry Potter").
+     * Words are quoted so characters like '-' or '"' are searched, not parsed as operators.
+     * Returns null when there is nothing searchable in the keyword.
+     */
+    private static String toFtsQuery(String keyword) {
+        if (keyword == null) {
+            return null;
+        }
+        StringBuilder query = new StringBuilder();
+        for (String word : keyword.trim().split("\\s+")) {
+            if (!word.chars().anyMatch(Character::isLetterOrDigit)) {
+                continue;
+            }
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append('"').append(word.replace("\"", "\"\"")).append("\"*");
+        }
+        return query.length() == 0 ? null : query.toString();
+    }
+    
+    /**
+     * Keeps in-memory book state in line after LoanService flips books.available.
+     * Call from inside the write transaction: the update is applied by a
+     * post-commit hook, so lends and returns of one book land in commit order.
+     */
+    public void availabilityChanged(int bookId, boolean available) {
+        DBConnection.afterCommit(() -> {
+            CACHE.invalidate(bookId);
+            SEARCH_INDEX.update(bookId, book -> book.setAvailable(available));
+            AVAILABILITY.set(bookId, available);
+        });
+    }
+    
+    /**
+     * Loads the availability bitmap; until it is loaded lookups go to SQL.
+     */
+    public static void warmUpAvailability() {
+        AVAILABILITY.load();
+    }
+    
+    /**
+     * Answers from the in-memory availability bitmap; false for unknown ids.
+     */
+    public boolean isAvailable(int bookId) {
+        return AVAILABILITY.isAvailable(bookId);
+    }
+    
+    public int countAvailable() {
+        return AVAILABILITY.countAvailable();
+    }
+    
+    private static Book copyOf(Book book) {
+        Book copy = new Book(book.getTitle(), book.getAuthor(), book.getIsbn());
+        copy.setId(book.getId());
+        copy.setAvailable(book.isAvailable());
+        copy.setLoanPeriodDays(book.getLoanPeriodDays());
+        return copy;
+    }
+    
+    private static Book mapBook(ResultSet rs) throws SQLException {
+        Book book = new Book();
+        book.setId(rs.getInt("id"));
+        book.setTitle(rs.getString("title"));
+        book.setAuthor(rs.getString("author"));
+        book.setIsbn(rs.getString("isbn"));
+        book.setAvailable(rs.getInt("available") == 1);
+        book.setLoanPeriodDays(rs.getInt("loan_period_days"));
+        return book;
     }
 }
 
-// dao/BookDAO.java
+// dao/AvailabilityIndex.java
 package dao;
 
-import model.Book;
 import util.DBConnection;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 /**
- * Data Access Object for Book operations
+ * In-memory bitmap of books.available keyed by book id. One bit says the book
+ * exists, a second says it is on the shelf, so availability lookups and the
+ * available-book count are O(1) instead of a query.
+ * 
+ * load() reads the books table without holding the index's lock, so lookups are
+ * never stuck behind it: until a load completes they are answered by SQL.
+ * Changes are fed in by post-commit hooks (see DBConnection.afterCommit), so
+ * they arrive in commit order; those committed while a load is reading are
+ * replayed on top of its snapshot.
  */
-public class BookDAO {
+public class AvailabilityIndex {
+    private static final int REMOVED = -1;
     
-    public boolean addBook(Book book) {
-        String sql = "INSERT INTO books(title, author, isbn, available) VALUES(?, ?, ?, ?)";
-        
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, book.getTitle());
-            pstmt.setString(2, book.getAuthor());
-            pstmt.setString(3, book.getIsbn());
-            pstmt.setBoolean(4, book.isAvailable());
-            
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
-        } catch (SQLException e) {
-            System.err.println("Error adding book: " + e.getMessage());
-            e.printStackTrace();
+    private BitSet known = new BitSet();
+    private BitSet available = new BitSet();
+    private int knownCount;
+    private int availableCount;
+    private boolean loaded;
+    // Non-null while a load is reading; {bookId, state} in commit order
+    private List<int[]> pending;
+    
+    AvailabilityIndex() {}
+    
+    public boolean isAvailable(int bookId) {
+        synchronized (this) {
+            if (loaded) {
+                return bookId >= 0 && available.get(bookId);
+            }
         }
-        return false;
+        loadInBackground();
+        return queryFlag("SELECT available FROM books WHERE id = ?", bookId);
     }
     
-    public boolean updateBook(Book book) {
-        String sql = "UPDATE books SET title = ?, author = ?, isbn = ?, available = ? WHERE id = ?";
-        
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, book.getTitle());
-            pstmt.setString(2, book.getAuthor());
-            pstmt.setString(3, book.getIsbn());
-            pstmt.setBoolean(4, book.isAvailable());
-            pstmt.setInt(5, book.getId());
-            
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
-        } catch (SQLException e) {
-            System.err.println("Error updating book: " + e.getMessage());
-            e.printStackTrace();
+    public boolean contains(int bookId) {
+        synchronized (this) {
+            if (loaded) {
+                return bookId >= 0 && known.get(bookId);
+            }
         }
-        return false;
+        loadInBackground();
+        return queryFlag("SELECT 1 FROM books WHERE id = ?", bookId);
     }
     
-    public boolean deleteBook(int id) {
-        String sql = "DELETE FROM books WHERE id = ?";
-        
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setInt(1, id);
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
-        } catch (SQLException e) {
-            System.err.println("Error deleting book: " + e.getMessage());
-            e.printStackTrace();
+    public int countAvailable() {
+        synchronized (this) {
+            if (loaded) {
+                return availableCount;
+            }
         }
-        return false;
+        loadInBackground();
+        return queryCount("SELECT COUNT(*) FROM books WHERE available = 1");
     }
     
-    public List<Book> getAllBooks() {
-        List<Book> books = new ArrayList<>();
-        String sql = "SELECT * FROM books ORDER BY title";
+    public int countBooks() {
+        synchronized (this) {
+            if (loaded) {
+                return knownCount;
+            }
+        }
+        loadInBackground();
+        return queryCount("SELECT COUNT(*) FROM books");
+    }
+    
+    /**
+     * Records the committed state of a book; call from a post-commit hook.
+     */
+    synchronized void set(int bookId, boolean isAvailable) {
+        record(bookId, isAvailable ? 1 : 0);
+    }
+    
+    synchronized void remove(int bookId) {
+        record(bookId, REMOVED);
+    }
+    
+    /**
+     * Drops the bitmap and reloads it in the background; lookups use SQL meanwhile.
+     */
+    void invalidate() {
+        synchronized (this) {
+            loaded = false;
+        }
+        loadInBackground();
+    }
+    
+    /**
+     * Reads the whole bitmap on the calling thread; does nothing if a load is already running.
+     */
+    void load() {
+        synchronized (this) {
+            if (pending != null) {
+                return;
+            }
+            pending = new ArrayList<>();
+        }
+        
+        BitSet loadedKnown = new BitSet();
+        BitSet loadedAvailable = new BitSet();
+        int loadedKnownCount = 0;
+        int loadedAvailableCount = 0;
+        boolean complete = false;
+        String sql = "SELECT id, available FROM books";
         
         try (Connection conn = DBConnection.getConnection();
              Statement stmt = conn.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             
             while (rs.next()) {
-                Book book = new Book();
-                book.setId(rs.getInt("id"));
-                book.setTitle(rs.getString("title"));
-                book.setAuthor(rs.getString("author"));
-                book.setIsbn(rs.getString("isbn"));
-                book.setAvailable(rs.getInt("available") == 1);
-                books.add(book);
+                int id = rs.getInt("id");
+                loadedKnown.set(id);
+                loadedKnownCount++;
+                if (rs.getInt("available") == 1) {
+                    loadedAvailable.set(id);
+                    loadedAvailableCount++;
+                }
             }
+            complete = true;
         } catch (SQLException e) {
-            System.err.println("Error retrieving books: " + e.getMessage());
+            System.err.println("Error loading book availability: " + e.getMessage());
             e.printStackTrace();
         }
-        return books;
+        
+        synchronized (this) {
+            List<int[]> committedMeanwhile = pending;
+            pending = null;
+            if (!complete) {
+                return;
+            }
+            known = loadedKnown;
+            available = loadedAvailable;
+            knownCount = loadedKnownCount;
+            availableCount = loadedAvailableCount;
+            loaded = true;
+            // Each entry is a committed state, so replaying ones the snapshot already saw is harmless
+            for (int[] change : committedMeanwhile) {
+                apply(change[0], change[1]);
+            }
+        }
     }
     
-    public List<Book> searchBooks(String keyword) {
-        List<Book> books = new ArrayList<>();
-        String sql = "SELECT * FROM books WHERE title LIKE ? OR author LIKE ? OR isbn LIKE ? ORDER BY title";
-        
+    private void loadInBackground() {
+        synchronized (this) {
+            if (loaded || pending != null) {
+                return;
+            }
+        }
+        Thread loader = new Thread(this::load, "availability-load");
+        loader.setDaemon(true);
+        loader.start();
+    }
+    
+    private void record(int bookId, int state) {
+        if (bookId < 0) {
+            return;
+        }
+        if (pending != null) {
+            pending.add(new int[] {bookId, state});
+        }
+        if (loaded) {
+            apply(bookId, state);
+        }
+    }
+    
+    private void apply(int bookId, int state) {
+        if (state == REMOVED) {
+            if (known.get(bookId)) {
+                known.clear(bookId);
+                knownCount--;
+                if (available.get(bookId)) {
+                    available.clear(bookId);
+                    availableCount--;
+                }
+            }
+            return;
+        }
+        if (!known.get(bookId)) {
+            known.set(bookId);
+            knownCount++;
+        }
+        boolean isAvailable = state == 1;
+        if (available.get(bookId) != isAvailable) {
+            available.set(bookId, isAvailable);
+            availableCount += isAvailable ? 1 : -1;
+        }
+    }
+    
+    private boolean queryFlag(String sql, int bookId) {
         try (Connection conn = DBConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
-            String queryParam = "%" + keyword + "%";
-            pstmt.setString(1, queryParam);
-            pstmt.setString(2, queryParam);
-            pstmt.setString(3, queryParam);
-            
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                Book book = new Book();
-                book.setId(rs.getInt("id"));
-                book.setTitle(rs.getString("title"));
-                book.setAuthor(rs.getString("author"));
-                book.setIsbn(rs.getString("isbn"));
-                book.setAvailable(rs.getInt("available") == 1);
-                books.add(book);
+            pstmt.setInt(1, bookId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 1;
             }
         } catch (SQLException e) {
-            System.err.println("Error searching books: " + e.getMessage());
+            System.err.println("Error reading book availability: " + e.getMessage());
             e.printStackTrace();
         }
-        return books;
+        return false;
     }
     
-    public Book getBookById(int id) {
-        Book book = null;
-        String sql = "SELECT * FROM books WHERE id = ?";
-        
+    private int queryCount(String sql) {
         try (Connection conn = DBConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setInt(1, id);
-            ResultSet rs = pstmt.executeQuery();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
             
-            if (rs.next()) {
-                book = new Book();
-                book.setId(rs.getInt("id"));
-                book.setTitle(rs.getString("title"));
-                book.setAuthor(rs.getString("author"));
-                book.setIsbn(rs.getString("isbn"));
-                book.setAvailable(rs.getInt("available") == 1);
-            }
+            return rs.next() ? rs.getInt(1) : 0;
         } catch (SQLException e) {
-            System.err.println("Error retrieving book: " + e.getMessage());
+            System.err.println("Error counting books: " + e.getMessage());
             e.printStackTrace();
         }
-        return book;
+        return 0;
     }
 }
 
@@ -370,30 +2950,118 @@ public class BookDAO {
 package dao;
 
 import model.Member;
+import model.Page;
+import model.PageCursor;
+import util.CacheStats;
+import util.ChangeListener;
+import util.ChangeMonitor;
 import util.DBConnection;
+import util.LruCache;
+import util.ReportCache;
+import util.RowHandler;
+import util.SearchMode;
+import util.TrigramIndex;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Data Access Object for Member operations
  */
 public class MemberDAO {
+    // In-memory trigram index, used in SearchMode.MEMORY and shared by all MemberDAO instances
+    private static final boolean MEMORY_INDEX = SearchMode.configured() == SearchMode.MEMORY;
+    private static final TrigramIndex<Member> SEARCH_INDEX = new TrigramIndex<>(
+            Member::getId,
+            member -> Arrays.asList(member.getName(), member.getEmail()),
+            Comparator.comparing(Member::getName).thenComparingInt(Member::getId),
+            MemberDAO::copyOf);
+    
+    // Read-through cache for getMemberById, invalidated by every write to a member
+    private static final LruCache<Integer, Member> CACHE =
+            new LruCache<>(Integer.getInteger("library.cache.members.size", 1000));
+    
+    public static CacheStats getCacheStats() {
+        return CACHE.stats();
+    }
+    
+    static {
+        // Members changed through other connections (e.g. another desk) are re-read from the database
+        ChangeMonitor.addListener("members", new ChangeListener() {
+            @Override
+            public void rowsChanged(Set<Integer> memberIds) {
+                MemberDAO dao = new MemberDAO();
+                for (int id : memberIds) {
+                    CACHE.invalidate(id);
+                    if (MEMORY_INDEX) {
+                        Member member = dao.loadMemberById(id);
+                        if (member == null) {
+                            SEARCH_INDEX.remove(id);
+                        } else {
+                            SEARCH_INDEX.put(member);
+                        }
+                    }
+                }
+            }
+            
+            @Override
+            public void tableChanged() {
+                CACHE.clear();
+                warmUpSearchIndex();
+            }
+        });
+    }
+    
+    /**
+     * Builds the in-memory search index from the members table, if it is enabled.
+     * Until this finishes, searches go to SQLite.
+     */
+    public static void warmUpSearchIndex() {
+        if (!MEMORY_INDEX) {
+            return;
+        }
+        try {
+            SEARCH_INDEX.load(() -> new MemberDAO().getAllMembers());
+        } catch (Exception e) {
+            System.err.println("Error building member search index: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
     
     public boolean addMember(Member member) {
         String sql = "INSERT INTO members(name, email, phone, address) VALUES(?, ?, ?, ?)";
         
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, member.getName());
-            pstmt.setString(2, member.getEmail());
-            pstmt.setString(3, member.getPhone());
-            pstmt.setString(4, member.getAddress());
-            
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+        try {
+            boolean added = DBConnection.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    pstmt.setString(1, member.getName());
+                    pstmt.setString(2, member.getEmail());
+                    pstmt.setString(3, member.getPhone());
+                    pstmt.setString(4, member.getAddress());
+                    
+                    int affectedRows = pstmt.executeUpdate();
+                    if (affectedRows == 0) {
+                        return false;
+                    }
+                    try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                        if (keys.next()) {
+                            member.setId(keys.getInt(1));
+                        }
+                    }
+                    // Indexed in commit order, like BookDAO's availability
+                    Member indexed = copyOf(member);
+                    DBConnection.afterCommit(() -> SEARCH_INDEX.put(indexed));
+                    return true;
+                }
+            });
+            if (added) {
+                ReportCache.invalidate("members");
+            }
+            return added;
         } catch (SQLException e) {
             System.err.println("Error adding member: " + e.getMessage());
             e.printStackTrace();
@@ -404,17 +3072,29 @@ public class MemberDAO {
     public boolean updateMember(Member member) {
         String sql = "UPDATE members SET name = ?, email = ?, phone = ?, address = ? WHERE id = ?";
         
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, member.getName());
-            pstmt.setString(2, member.getEmail());
-            pstmt.setString(3, member.getPhone());
-            pstmt.setString(4, member.getAddress());
-            pstmt.setInt(5, member.getId());
-            
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+        try {
+            boolean updated = DBConnection.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, member.getName());
+                    pstmt.setString(2, member.getEmail());
+                    pstmt.setString(3, member.getPhone());
+                    pstmt.setString(4, member.getAddress());
+                    pstmt.setInt(5, member.getId());
+                    
+                    int affectedRows = pstmt.executeUpdate();
+                    if (affectedRows == 0) {
+                        return false;
+                    }
+                    Member indexed = copyOf(member);
+                    DBConnection.afterCommit(() -> SEARCH_INDEX.put(indexed));
+                    return true;
+                }
+            });
+            if (updated) {
+                CACHE.invalidate(member.getId());
+                ReportCache.invalidate("members");
+            }
+            return updated;
         } catch (SQLException e) {
             System.err.println("Error updating member: " + e.getMessage());
             e.printStackTrace();
@@ -425,12 +3105,23 @@ public class MemberDAO {
     public boolean deleteMember(int id) {
         String sql = "DELETE FROM members WHERE id = ?";
         
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setInt(1, id);
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+        try {
+            boolean deleted = DBConnection.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setInt(1, id);
+                    int affectedRows = pstmt.executeUpdate();
+                    if (affectedRows == 0) {
+                        return false;
+                    }
+                    DBConnection.afterCommit(() -> SEARCH_INDEX.remove(id));
+                    return true;
+                }
+            });
+            if (deleted) {
+                CACHE.invalidate(id);
+                ReportCache.invalidate("members");
+            }
+            return deleted;
         } catch (SQLException e) {
             System.err.println("Error deleting member: " + e.getMessage());
             e.printStackTrace();
@@ -447,13 +3138,7 @@ public class MemberDAO {
              ResultSet rs = stmt.executeQuery(sql)) {
             
             while (rs.next()) {
-                Member member = new Member();
-                member.setId(rs.getInt("id"));
-                member.setName(rs.getString("name"));
-                member.setEmail(rs.getString("email"));
-                member.setPhone(rs.getString("phone"));
-                member.setAddress(rs.getString("address"));
-                members.add(member);
+                members.add(mapMember(rs));
             }
         } catch (SQLException e) {
             System.err.println("Error retrieving members: " + e.getMessage());
@@ -462,26 +3147,167 @@ public class MemberDAO {
         return members;
     }
     
+    /**
+     * Streams every member, ordered by name, to the handler without building a list.
+     * The ResultSet stays open only for the duration of the call.
+     * 
+     * @return the number of rows handed to the handler
+     */
+    public long streamAllMembers(RowHandler<Member> handler) throws SQLException {
+        String sql = "SELECT * FROM members ORDER BY name";
+        long count = 0;
+        
+        try (Connection conn = DBConnection.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            
+            while (rs.next()) {
+                count++;
+                if (!handler.handle(mapMember(rs))) {
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Returns one page of members ordered by name, starting after the cursor
+     * (or from the start when it is null).
+     */
+    public Page<Member> getMembersPage(PageCursor after, int pageSize) {
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT * FROM members" + keysetClause(after, " WHERE ", params) +
+                     " ORDER BY name, id LIMIT ?";
+        return readPage(sql, params, pageSize);
+    }
+    
+    /**
+     * Cursor of the member at offset in name order, or null past the end. Walks
+     * idx_members_name without reading the rows, for jumping straight to a page.
+     */
+    public PageCursor getMemberCursorAt(int offset) {
+        String sql = "SELECT name, id FROM members ORDER BY name, id LIMIT 1 OFFSET ?";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setInt(1, offset);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return new PageCursor(rs.getString(1), rs.getInt(2));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error locating members page: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return null;
+    }
+    
+    /**
+     * Number of members that sort before cursor, i.e. its position in name order.
+     */
+    public int countMembersBefore(PageCursor cursor) {
+        String sql = "SELECT COUNT(*) FROM members WHERE (name, id) < (?, ?)";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setString(1, cursor.getSortKey());
+            pstmt.setInt(2, cursor.getId());
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return rs.getInt(1);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error counting members: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return 0;
+    }
+    
+    /**
+     * Paged variant of searchMembers.
+     */
+    public Page<Member> searchMembersPage(String keyword, PageCursor after, int pageSize) {
+        if (keyword == null || keyword.trim().isEmpty()) {
+            return getMembersPage(after, pageSize);
+        }
+        
+        List<Object> params = new ArrayList<>();
+        String queryParam = SearchMode.containsPattern(keyword);
+        params.add(queryParam);
+        params.add(queryParam);
+        String sql = "SELECT * FROM members WHERE (name LIKE ? ESCAPE '\\' OR email LIKE ? ESCAPE '\\')" +
+                     keysetClause(after, " AND ", params) +
+                     " ORDER BY name, id LIMIT ?";
+        return readPage(sql, params, pageSize);
+    }
+    
+    private static String keysetClause(PageCursor after, String joiner, List<Object> params) {
+        if (after == null) {
+            return "";
+        }
+        params.add(after.getSortKey());
+        params.add(after.getId());
+        return joiner + "(name, id) > (?, ?)";
+    }
+    
+    private Page<Member> readPage(String sql, List<Object> params, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
+        }
+        List<Member> members = new ArrayList<>();
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            int index = 1;
+            for (Object param : params) {
+                pstmt.setObject(index++, param);
+            }
+            // One row past the page tells us whether there is a next page
+            pstmt.setInt(index, pageSize + 1);
+            
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                members.add(mapMember(rs));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error retrieving members page: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return Page.fromLookahead(members, pageSize, member -> new PageCursor(member.getName(), member.getId()));
+    }
+    
+    /**
+     * Searches name and email. Answered from the in-memory trigram index when it is
+     * enabled and warm, otherwise with a LIKE scan. A blank keyword returns every member.
+     */
     public List<Member> searchMembers(String keyword) {
+        if (MEMORY_INDEX) {
+            // null when the index is still cold or the keyword is too short for trigrams
+            List<Member> indexed = SEARCH_INDEX.search(keyword);
+            if (indexed != null) {
+                return indexed;
+            }
+        }
+        
+        // Same matches and order as the trigram index, so results do not depend on its warmth
         List<Member> members = new ArrayList<>();
-        String sql = "SELECT * FROM members WHERE name LIKE ? OR email LIKE ? ORDER BY name";
+        String sql = "SELECT * FROM members WHERE name LIKE ? ESCAPE '\\' OR email LIKE ? ESCAPE '\\' " +
+                     "ORDER BY name, id";
         
         try (Connection conn = DBConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
-            String queryParam = "%" + keyword + "%";
+            String queryParam = SearchMode.containsPattern(keyword);
             pstmt.setString(1, queryParam);
             pstmt.setString(2, queryParam);
             
             ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                Member member = new Member();
-                member.setId(rs.getInt("id"));
-                member.setName(rs.getString("name"));
-                member.setEmail(rs.getString("email"));
-                member.setPhone(rs.getString("phone"));
-                member.setAddress(rs.getString("address"));
-                members.add(member);
+                members.add(mapMember(rs));
             }
         } catch (SQLException e) {
             System.err.println("Error searching members: " + e.getMessage());
@@ -490,7 +3316,24 @@ public class MemberDAO {
         return members;
     }
     
+    /**
+     * Returns the member from the cache when present, otherwise reads it and caches it.
+     */
     public Member getMemberById(int id) {
+        Member cached = CACHE.get(id);
+        if (cached != null) {
+            return copyOf(cached);
+        }
+        
+        long stamp = CACHE.stamp();
+        Member member = loadMemberById(id);
+        if (member != null) {
+            CACHE.putIfUnchanged(id, copyOf(member), stamp);
+        }
+        return member;
+    }
+    
+    private Member loadMemberById(int id) {
         Member member = null;
         String sql = "SELECT * FROM members WHERE id = ?";
         
@@ -501,12 +3344,7 @@ public class MemberDAO {
             ResultSet rs = pstmt.executeQuery();
             
             if (rs.next()) {
-                member = new Member();
-                member.setId(rs.getInt("id"));
-                member.setName(rs.getString("name"));
-                member.setEmail(rs.getString("email"));
-                member.setPhone(rs.getString("phone"));
-                member.setAddress(rs.getString("address"));
+                member = mapMember(rs);
             }
         } catch (SQLException e) {
             System.err.println("Error retrieving member: " + e.getMessage());
@@ -514,4 +3352,22 @@ public class MemberDAO {
         }
         return member;
     }
+    
+    private static Member copyOf(Member member) {
+        Member copy = new Member(member.getName(), member.getEmail());
+        copy.setId(member.getId());
+        copy.setPhone(member.getPhone());
+        copy.setAddress(member.getAddress());
+        return copy;
+    }
+    
+    private static Member mapMember(ResultSet rs) throws SQLException {
+        Member member = new Member();
+        member.setId(rs.getInt("id"));
+        member.setName(rs.getString("name"));
+        member.setEmail(rs.getString("email"));
+        member.setPhone(rs.getString("phone"));
+        member.setAddress(rs.getString("address"));
+        return member;
+    }
 }
\ No newline at end of file
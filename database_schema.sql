@@ -17,6 +17,7 @@ CREATE TABLE books (
     author TEXT NOT NULL,
     isbn TEXT NOT NULL UNIQUE,
     available INTEGER DEFAULT 1,
+    loan_period_days INTEGER NOT NULL DEFAULT 14,
     created_date DATETIME DEFAULT CURRENT_TIMESTAMP,
     updated_date DATETIME DEFAULT CURRENT_TIMESTAMP
 );
@@ -49,9 +50,198 @@ CREATE INDEX idx_books_title ON books(title);
 CREATE INDEX idx_books_author ON books(author);
 CREATE INDEX idx_books_isbn ON books(isbn);
 CREATE INDEX idx_members_email ON members(email);
+CREATE INDEX idx_members_name ON members(name);
 CREATE INDEX idx_loans_book_id ON loans(book_id);
 CREATE INDEX idx_loans_member_id ON loans(member_id);
 CREATE INDEX idx_loans_status ON loans(status);
+-- Open loans by due date, for overdue and due-soon queries (partial: returned loans are never scanned)
+CREATE INDEX idx_loans_open_due_date ON loans(due_date) WHERE return_date IS NULL;
+
+-- Full-text index for book search (external content: rows live in books)
+CREATE VIRTUAL TABLE books_fts USING fts5(
+    title, author, isbn,
+    content='books', content_rowid='id',
+    tokenize='unicode61 remove_diacritics 2'
+);
+
+-- Keep books_fts in sync with books. Availability changes do not touch the index.
+CREATE TRIGGER books_fts_ai AFTER INSERT ON books BEGIN
+    INSERT INTO books_fts(rowid, title, author, isbn) VALUES (new.id, new.title, new.author, new.isbn);
+END;
+
+CREATE TRIGGER books_fts_ad AFTER DELETE ON books BEGIN
+    INSERT INTO books_fts(books_fts, rowid, title, author, isbn) VALUES ('delete', old.id, old.title, old.author, old.isbn);
+END;
+
+CREATE TRIGGER books_fts_au AFTER UPDATE OF title, author, isbn ON books BEGIN
+    INSERT INTO books_fts(books_fts, rowid, title, author, isbn) VALUES ('delete', old.id, old.title, old.author, old.isbn);
+    INSERT INTO books_fts(rowid, title, author, isbn) VALUES (new.id, new.title, new.author, new.isbn);
+END;
+
+-- Change log read by every desk to keep its in-memory caches coherent
+CREATE TABLE change_log (
+    seq INTEGER PRIMARY KEY AUTOINCREMENT,
+    table_name TEXT NOT NULL,
+    row_id INTEGER NOT NULL
+);
+
+CREATE TRIGGER books_changes_ai AFTER INSERT ON books BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('books', new.id); END;
+CREATE TRIGGER books_changes_au AFTER UPDATE ON books BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('books', new.id); END;
+CREATE TRIGGER books_changes_ad AFTER DELETE ON books BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('books', old.id); END;
+
+CREATE TRIGGER members_changes_ai AFTER INSERT ON members BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('members', new.id); END;
+CREATE TRIGGER members_changes_au AFTER UPDATE ON members BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('members', new.id); END;
+CREATE TRIGGER members_changes_ad AFTER DELETE ON members BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('members', old.id); END;
+
+CREATE TRIGGER users_changes_ai AFTER INSERT ON users BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('users', new.id); END;
+CREATE TRIGGER users_changes_au AFTER UPDATE ON users BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('users', new.id); END;
+CREATE TRIGGER users_changes_ad AFTER DELETE ON users BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('users', old.id); END;
+
+CREATE TRIGGER loans_changes_ai AFTER INSERT ON loans BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('loans', new.id); END;
+CREATE TRIGGER loans_changes_au AFTER UPDATE ON loans BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('loans', new.id); END;
+CREATE TRIGGER loans_changes_ad AFTER DELETE ON loans BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('loans', old.id); END;
+
+-- Running totals for the dashboard, maintained by the triggers below
+CREATE TABLE library_counters (
+    name TEXT PRIMARY KEY,
+    value INTEGER NOT NULL DEFAULT 0
+);
+
+INSERT INTO library_counters (name, value) VALUES
+('totalBooks', 0), ('availableBooks', 0), ('totalMembers', 0), ('activeLoans', 0);
+
+CREATE TRIGGER books_counters_ai AFTER INSERT ON books BEGIN
+    UPDATE library_counters SET value = value + 1 WHERE name = 'totalBooks';
+    UPDATE library_counters SET value = value + 1 WHERE name = 'availableBooks' AND new.available = 1;
+END;
+
+CREATE TRIGGER books_counters_ad AFTER DELETE ON books BEGIN
+    UPDATE library_counters SET value = value - 1 WHERE name = 'totalBooks';
+    UPDATE library_counters SET value = value - 1 WHERE name = 'availableBooks' AND old.available = 1;
+END;
+
+CREATE TRIGGER books_counters_au AFTER UPDATE OF available ON books
+WHEN (old.available = 1) IS NOT (new.available = 1) BEGIN
+    UPDATE library_counters SET value = value + (CASE WHEN new.available = 1 THEN 1 ELSE -1 END)
+    WHERE name = 'availableBooks';
+END;
+
+CREATE TRIGGER members_counters_ai AFTER INSERT ON members BEGIN
+    UPDATE library_counters SET value = value + 1 WHERE name = 'totalMembers';
+END;
+
+CREATE TRIGGER members_counters_ad AFTER DELETE ON members BEGIN
+    UPDATE library_counters SET value = value - 1 WHERE name = 'totalMembers';
+END;
+
+CREATE TRIGGER loans_counters_ai AFTER INSERT ON loans WHEN new.return_date IS NULL BEGIN
+    UPDATE library_counters SET value = value + 1 WHERE name = 'activeLoans';
+END;
+
+CREATE TRIGGER loans_counters_ad AFTER DELETE ON loans WHEN old.return_date IS NULL BEGIN
+    UPDATE library_counters SET value = value - 1 WHERE name = 'activeLoans';
+END;
+
+CREATE TRIGGER loans_counters_au AFTER UPDATE OF return_date ON loans
+WHEN (old.return_date IS NULL) IS NOT (new.return_date IS NULL) BEGIN
+    UPDATE library_counters SET value = value + (CASE WHEN new.return_date IS NULL THEN 1 ELSE -1 END)
+    WHERE name = 'activeLoans';
+END;
+
+-- Per-day loan summaries for date-range reports, maintained by the triggers below.
+-- day holds the same value as loans.loan_date / return_date.
+CREATE TABLE loan_daily_stats (
+    day INTEGER PRIMARY KEY,
+    checkouts INTEGER NOT NULL DEFAULT 0,
+    returns INTEGER NOT NULL DEFAULT 0,
+    late_returns INTEGER NOT NULL DEFAULT 0
+);
+
+CREATE TABLE loan_daily_books (
+    day INTEGER NOT NULL,
+    book_id INTEGER NOT NULL,
+    checkouts INTEGER NOT NULL DEFAULT 0,
+    PRIMARY KEY (day, book_id)
+);
+
+CREATE TABLE loan_daily_members (
+    day INTEGER NOT NULL,
+    member_id INTEGER NOT NULL,
+    checkouts INTEGER NOT NULL DEFAULT 0,
+    PRIMARY KEY (day, member_id)
+);
+
+CREATE TRIGGER loans_rollup_ai AFTER INSERT ON loans
+WHEN new.loan_date IS NOT NULL BEGIN
+    INSERT INTO loan_daily_stats(day, checkouts) VALUES (new.loan_date, 1)
+        ON CONFLICT(day) DO UPDATE SET checkouts = checkouts + 1;
+    INSERT INTO loan_daily_books(day, book_id, checkouts) VALUES (new.loan_date, new.book_id, 1)
+        ON CONFLICT(day, book_id) DO UPDATE SET checkouts = checkouts + 1;
+    INSERT INTO loan_daily_members(day, member_id, checkouts) VALUES (new.loan_date, new.member_id, 1)
+        ON CONFLICT(day, member_id) DO UPDATE SET checkouts = checkouts + 1;
+END;
+
+CREATE TRIGGER loans_rollup_ad AFTER DELETE ON loans BEGIN
+    UPDATE loan_daily_stats SET checkouts = checkouts - 1 WHERE day = old.loan_date;
+    UPDATE loan_daily_books SET checkouts = checkouts - 1 WHERE day = old.loan_date AND book_id = old.book_id;
+    UPDATE loan_daily_members SET checkouts = checkouts - 1 WHERE day = old.loan_date AND member_id = old.member_id;
+    UPDATE loan_daily_stats SET returns = returns - 1,
+        late_returns = late_returns - COALESCE(old.return_date > old.due_date, 0)
+    WHERE day = old.return_date;
+END;
+
+-- A return is late if it comes after the due date. Clearing or moving a return
+-- takes it back off its old day first.
+CREATE TRIGGER loans_rollup_au AFTER UPDATE OF return_date ON loans
+WHEN old.return_date IS NOT new.return_date BEGIN
+    UPDATE loan_daily_stats SET returns = returns - 1,
+        late_returns = late_returns - COALESCE(old.return_date > old.due_date, 0)
+    WHERE day = old.return_date;
+    INSERT INTO loan_daily_stats(day, returns, late_returns)
+        SELECT new.return_date, 1, COALESCE(new.return_date > new.due_date, 0) WHERE new.return_date IS NOT NULL
+        ON CONFLICT(day) DO UPDATE SET returns = returns + 1, late_returns = late_returns + excluded.late_returns;
+END;
+
+-- Notifications waiting to be sent, drained by the notification dispatcher.
+-- Timestamps are epoch milliseconds; the message text is rendered when it is sent.
+CREATE TABLE notification_outbox (
+    id INTEGER PRIMARY KEY AUTOINCREMENT,
+    notice_type TEXT NOT NULL,
+    loan_id INTEGER NOT NULL,
+    recipient TEXT NOT NULL,
+    member_name TEXT,
+    book_title TEXT,
+    book_author TEXT,
+    due_date DATE,
+    status TEXT NOT NULL DEFAULT 'pending' CHECK (status IN ('pending', 'sending', 'sent', 'failed')),
+    attempts INTEGER NOT NULL DEFAULT 0,
+    next_attempt_at INTEGER NOT NULL,
+    claim_token TEXT,
+    claimed_at INTEGER,
+    created_at INTEGER NOT NULL,
+    sent_at INTEGER,
+    last_error TEXT
+);
+
+CREATE INDEX idx_outbox_pending ON notification_outbox(next_attempt_at) WHERE status = 'pending';
+CREATE INDEX idx_outbox_sending ON notification_outbox(claimed_at) WHERE status = 'sending';
+CREATE INDEX idx_outbox_finished ON notification_outbox(created_at) WHERE status IN ('sent', 'failed');
+
+-- One row per notice queued, so the notification jobs skip loans already notified.
+-- period is the due date for reminders and the overdue window number for overdue
+-- notices. Rows go when the loan is returned.
+CREATE TABLE notification_ledger (
+    loan_id INTEGER NOT NULL,
+    notice_type TEXT NOT NULL,
+    period INTEGER NOT NULL,
+    created_at INTEGER NOT NULL,
+    PRIMARY KEY (loan_id, notice_type, period)
+);
+
+CREATE TRIGGER loans_ledger_au AFTER UPDATE OF return_date ON loans
+WHEN new.return_date IS NOT NULL BEGIN
+    DELETE FROM notification_ledger WHERE loan_id = new.id;
+END;
 
 -- Insert default admin user (password: admin123)
 INSERT INTO users (username, password, role) VALUES 
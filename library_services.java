@@ -7,57 +7,262 @@ import model.Book;
 import model.Member;
 import model.Loan;
 import util.DBConnection;
+import util.ReportCache;
+import util.RowHandler;
+import util.SqlWork;
 
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class LoanService {
+    // Due date = loan date + the book's loan period, read in the same statement.
+    // Computed in local calendar days and stored, like setDate, as epoch
+    // milliseconds at local midnight; SQLite's 'localtime' uses the process time zone.
+    private static final String INSERT_LOAN_SQL =
+            "INSERT INTO loans(book_id, member_id, loan_date, due_date) " +
+            "SELECT id, ?, ?, CAST(strftime('%s', date(? / 1000, 'unixepoch', 'localtime', " +
+            "'+' || loan_period_days || ' days'), 'utc') AS INTEGER) * 1000 " +
+            "FROM books WHERE id = ?";
+    
     private BookDAO bookDAO = new BookDAO();
     private MemberDAO memberDAO = new MemberDAO();
 
     public boolean lendBook(int bookId, int memberId) {
-        String sql = "INSERT INTO loans(book_id, member_id, loan_date) VALUES(?, ?, ?)";
-        String updateBookSql = "UPDATE books SET available = 0 WHERE id = ?";
+        return checkoutBook(bookId, memberId) == LoanOutcome.SUCCESS;
+    }
+
+    /**
+     * Lends a book and reports why a checkout did not happen.
+     * The book is claimed with a single conditional update, so two desks lending
+     * the same copy at once cannot both succeed: the loser gets ALREADY_ON_LOAN.
+     */
+    public LoanOutcome checkoutBook(int bookId, int memberId) {
+        try {
+            LoanOutcome outcome = DBConnection.write(lendWork(bookId, memberId));
+            if (outcome == LoanOutcome.SUCCESS) {
+                bookLent(bookId);
+            }
+            return outcome;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return LoanOutcome.FAILED;
+    }
+
+    /**
+     * Queues a checkout without blocking the caller. With group commit enabled,
+     * checkouts queued close together share a single transaction and fsync.
+     */
+    public CompletableFuture<LoanOutcome> checkoutBookAsync(int bookId, int memberId) {
+        return DBConnection.writeAsync(lendWork(bookId, memberId))
+                .thenApply(outcome -> {
+                    if (outcome == LoanOutcome.SUCCESS) {
+                        bookLent(bookId);
+                    }
+                    return outcome;
+                })
+                .exceptionally(e -> {
+                    e.printStackTrace();
+                    return LoanOutcome.FAILED;
+                });
+    }
+
+    public boolean returnBook(int bookId, int memberId) {
+        try {
+            boolean returned = DBConnection.write(returnWork(bookId, memberId));
+            if (returned) {
+                bookReturned(bookId);
+            }
+            return returned;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Queues a return without blocking the caller, so a scanner emptying the
+     * returns drop-box can keep scanning while earlier returns are group-committed.
+     */
+    public CompletableFuture<Boolean> returnBookAsync(int bookId, int memberId) {
+        return DBConnection.writeAsync(returnWork(bookId, memberId))
+                .thenApply(returned -> {
+                    if (returned) {
+                        bookReturned(bookId);
+                    }
+                    return returned;
+                })
+                .exceptionally(e -> {
+                    e.printStackTrace();
+                    return false;
+                });
+    }
+
+    /**
+     * Lends several books to one member in a single transaction.
+     * Claims and loan inserts are sent as JDBC batches; the returned map holds
+     * one outcome per requested book id, in request order.
+     */
+    public Map<Integer, LoanOutcome> lendBooks(int memberId, List<Integer> bookIds) {
+        String claimBookSql = "UPDATE books SET available = 0 WHERE id = ? AND available = 1";
+        String sql = INSERT_LOAN_SQL;
+        List<Integer> ids = new ArrayList<>(new LinkedHashSet<>(bookIds));
         
-        try (Connection conn = DBConnection.getConnection()) {
-            conn.setAutoCommit(false);
-            
-            // Check if book is available
-            if (!isBookAvailable(bookId)) {
-                return false;
+        try {
+            Map<Integer, LoanOutcome> result = DBConnection.write(conn -> {
+                Map<Integer, LoanOutcome> outcomes = new LinkedHashMap<>();
+                if (!memberExists(conn, memberId)) {
+                    for (int bookId : ids) {
+                        outcomes.put(bookId, LoanOutcome.MEMBER_NOT_FOUND);
+                    }
+                    return outcomes;
+                }
+                
+                // Claim every requested book that is still available
+                int[] claimed;
+                try (PreparedStatement pstmt = conn.prepareStatement(claimBookSql)) {
+                    for (int bookId : ids) {
+                        pstmt.setInt(1, bookId);
+                        pstmt.addBatch();
+                    }
+                    claimed = pstmt.executeBatch();
+                }
+                
+                // Insert loan records for the books we got
+                LocalDate today = LocalDate.now();
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    for (int i = 0; i < ids.size(); i++) {
+                        int bookId = ids.get(i);
+                        if (claimed[i] > 0) {
+                            bindLoan(pstmt, bookId, memberId, today);
+                            pstmt.addBatch();
+                            bookDAO.availabilityChanged(bookId, false);
+                            outcomes.put(bookId, LoanOutcome.SUCCESS);
+                        } else {
+                            outcomes.put(bookId, bookExists(conn, bookId)
+                                    ? LoanOutcome.ALREADY_ON_LOAN : LoanOutcome.BOOK_NOT_FOUND);
+                        }
+                    }
+                    pstmt.executeBatch();
+                }
+                
+                return outcomes;
+            });
+            for (Map.Entry<Integer, LoanOutcome> entry : result.entrySet()) {
+                if (entry.getValue() == LoanOutcome.SUCCESS) {
+                    bookLent(entry.getKey());
+                }
             }
-            
-            // Insert loan record
-            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            return result;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return allFailed(ids);
+    }
+
+    /**
+     * Returns several books in a single transaction, e.g. when emptying the returns bin.
+     * Each book has at most one open loan, so the book id alone identifies the loan to close.
+     * The returned map holds one outcome per book id, in request order.
+     */
+    public Map<Integer, LoanOutcome> returnBooks(List<Integer> bookIds) {
+        String sql = "UPDATE loans SET return_date = ? WHERE book_id = ? AND return_date IS NULL";
+        String updateBookSql = "UPDATE books SET available = 1 WHERE id = ?";
+        List<Integer> ids = new ArrayList<>(new LinkedHashSet<>(bookIds));
+        
+        try {
+            Map<Integer, LoanOutcome> result = DBConnection.write(conn -> {
+                Map<Integer, LoanOutcome> outcomes = new LinkedHashMap<>();
+                
+                // Close the open loan of every book
+                int[] closed;
+                Date today = Date.valueOf(LocalDate.now());
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    for (int bookId : ids) {
+                        pstmt.setDate(1, today);
+                        pstmt.setInt(2, bookId);
+                        pstmt.addBatch();
+                    }
+                    closed = pstmt.executeBatch();
+                }
+                
+                // Put the returned books back on the shelf
+                try (PreparedStatement pstmt = conn.prepareStatement(updateBookSql)) {
+                    for (int i = 0; i < ids.size(); i++) {
+                        int bookId = ids.get(i);
+                        if (closed[i] > 0) {
+                            pstmt.setInt(1, bookId);
+                            pstmt.addBatch();
+                            bookDAO.availabilityChanged(bookId, true);
+                            outcomes.put(bookId, LoanOutcome.SUCCESS);
+                        } else {
+                            outcomes.put(bookId, LoanOutcome.NOT_ON_LOAN);
+                        }
+                    }
+                    pstmt.executeBatch();
+                }
+                
+                return outcomes;
+            });
+            for (Map.Entry<Integer, LoanOutcome> entry : result.entrySet()) {
+                if (entry.getValue() == LoanOutcome.SUCCESS) {
+                    bookReturned(entry.getKey());
+                }
+            }
+            return result;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return allFailed(ids);
+    }
+
+    private SqlWork<LoanOutcome> lendWork(int bookId, int memberId) {
+        String claimBookSql = "UPDATE books SET available = 0 WHERE id = ? AND available = 1";
+        String releaseBookSql = "UPDATE books SET available = 1 WHERE id = ?";
+        String sql = INSERT_LOAN_SQL;
+        
+        return conn -> {
+            // Claim the book only if it is still available; the row count says whether we got it
+            try (PreparedStatement pstmt = conn.prepareStatement(claimBookSql)) {
                 pstmt.setInt(1, bookId);
-                pstmt.setInt(2, memberId);
-                pstmt.setDate(3, Date.valueOf(LocalDate.now()));
-                pstmt.executeUpdate();
+                if (pstmt.executeUpdate() == 0) {
+                    return bookExists(conn, bookId) ? LoanOutcome.ALREADY_ON_LOAN : LoanOutcome.BOOK_NOT_FOUND;
+                }
             }
             
-            // Update book availability
-            try (PreparedStatement pstmt = conn.prepareStatement(updateBookSql)) {
-                pstmt.setInt(1, bookId);
+            // Nothing stops a loan for an unknown member at the insert, so check here and
+            // put the book back on the shelf in the same transaction
+            if (!memberExists(conn, memberId)) {
+                try (PreparedStatement pstmt = conn.prepareStatement(releaseBookSql)) {
+                    pstmt.setInt(1, bookId);
+                    pstmt.executeUpdate();
+                }
+                return LoanOutcome.MEMBER_NOT_FOUND;
+            }
+            
+            // Insert loan record; a failure here rolls back the claim with it
+            LocalDate today = LocalDate.now();
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                bindLoan(pstmt, bookId, memberId, today);
                 pstmt.executeUpdate();
             }
+            bookDAO.availabilityChanged(bookId, false);
             
-            conn.commit();
-            return true;
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return false;
+            return LoanOutcome.SUCCESS;
+        };
     }
 
-    public boolean returnBook(int bookId, int memberId) {
+    private SqlWork<Boolean> returnWork(int bookId, int memberId) {
         String sql = "UPDATE loans SET return_date = ? WHERE book_id = ? AND member_id = ? AND return_date IS NULL";
         String updateBookSql = "UPDATE books SET available = 1 WHERE id = ?";
         
-        try (Connection conn = DBConnection.getConnection()) {
-            conn.setAutoCommit(false);
-            
+        return conn -> {
             // Update loan record with return date
             try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
                 pstmt.setDate(1, Date.valueOf(LocalDate.now()));
@@ -66,7 +271,6 @@ public class LoanService {
                 int affectedRows = pstmt.executeUpdate();
                 
                 if (affectedRows == 0) {
-                    conn.rollback();
                     return false;
                 }
             }
@@ -76,373 +280,3142 @@ public class LoanService {
                 pstmt.setInt(1, bookId);
                 pstmt.executeUpdate();
             }
+            bookDAO.availabilityChanged(bookId, true);
             
-            conn.commit();
             return true;
+        };
+    }
+
+    public List<Loan> getActiveLoans() {
+        List<Loan> loans = new ArrayList<>();
+        try {
+            streamActiveLoans(loan -> loans.add(loan));
         } catch (SQLException e) {
             e.printStackTrace();
         }
-        return false;
+        return loans;
     }
 
-    public List<Loan> getActiveLoans() {
+    public List<Loan> getOverdueLoans(LocalDate asOf) {
+        List<Loan> overdueLoans = new ArrayList<>();
+        try {
+            streamOverdueLoans(asOf, loan -> overdueLoans.add(loan));
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return overdueLoans;
+    }
+
+    /**
+     * Open loans due within the next days days, today included, soonest first.
+     */
+    public List<Loan> getLoansDueWithin(int days) {
+        LocalDate today = LocalDate.now();
+        List<Loan> loans = new ArrayList<>();
+        try {
+            streamLoansDueBetween(today, today.plusDays(days), loan -> loans.add(loan));
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return loans;
+    }
+
+    public List<Loan> getMemberLoanHistory(int memberId) {
         List<Loan> loans = new ArrayList<>();
+        try {
+            streamMemberLoanHistory(memberId, loan -> loans.add(loan));
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return loans;
+    }
+
+    /**
+     * Streams open loans, joined with book and member details, one row at a time.
+     * 
+     * @return the number of rows handed to the handler
+     */
+    public long streamActiveLoans(RowHandler<Loan> handler) throws SQLException {
         String sql = "SELECT l.*, b.title, b.author, m.name, m.email " +
                     "FROM loans l " +
                     "JOIN books b ON l.book_id = b.id " +
                     "JOIN members m ON l.member_id = m.id " +
                     "WHERE l.return_date IS NULL";
-        
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql);
-             ResultSet rs = pstmt.executeQuery()) {
-            
-            while (rs.next()) {
-                Loan loan = new Loan();
-                loan.setId(rs.getInt("id"));
-                loan.setBookId(rs.getInt("book_id"));
-                loan.setMemberId(rs.getInt("member_id"));
-                loan.setLoanDate(rs.getDate("loan_date").toLocalDate());
-                loan.setBookTitle(rs.getString("title"));
-                loan.setBookAuthor(rs.getString("author"));
-                loan.setMemberName(rs.getString("name"));
-                loan.setMemberEmail(rs.getString("email"));
-                loans.add(loan);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return loans;
+        return streamLoans(sql, pstmt -> {}, true, handler);
     }
 
-    public List<Loan> getOverdueLoans(int daysOverdue) {
-        List<Loan> overdueLoans = new ArrayList<>();
+    /**
+     * Streams loans still out whose due date is before asOf, oldest due date first.
+     * Served by the partial index on open loans' due dates.
+     * 
+     * @return the number of rows handed to the handler
+     */
+    public long streamOverdueLoans(LocalDate asOf, RowHandler<Loan> handler) throws SQLException {
         String sql = "SELECT l.*, b.title, b.author, m.name, m.email " +
                     "FROM loans l " +
                     "JOIN books b ON l.book_id = b.id " +
                     "JOIN members m ON l.member_id = m.id " +
-                    "WHERE l.return_date IS NULL AND l.loan_date < ?";
-        
-        LocalDate overdueDate = LocalDate.now().minusDays(daysOverdue);
+                    "WHERE l.return_date IS NULL AND l.due_date < ? " +
+                    "ORDER BY l.due_date";
+        return streamLoans(sql, pstmt -> pstmt.setDate(1, Date.valueOf(asOf)), true, handler);
+    }
+
+    /**
+     * Streams loans still out that fall due between two dates, inclusive, soonest first.
+     * Served by the partial index on open loans' due dates.
+     * 
+     * @return the number of rows handed to the handler
+     */
+    public long streamLoansDueBetween(LocalDate from, LocalDate to, RowHandler<Loan> handler) throws SQLException {
+        String sql = "SELECT l.*, b.title, b.author, m.name, m.email " +
+                    "FROM loans l " +
+                    "JOIN books b ON l.book_id = b.id " +
+                    "JOIN members m ON l.member_id = m.id " +
+                    "WHERE l.return_date IS NULL AND l.due_date BETWEEN ? AND ? " +
+                    "ORDER BY l.due_date";
+        return streamLoans(sql, pstmt -> {
+            pstmt.setDate(1, Date.valueOf(from));
+            pstmt.setDate(2, Date.valueOf(to));
+        }, true, handler);
+    }
+
+    /**
+     * Number of loans still out whose due date is before asOf, answered from the open-loans index.
+     */
+    public int countOverdueLoans(LocalDate asOf) {
+        String sql = "SELECT COUNT(*) FROM loans WHERE return_date IS NULL AND due_date < ?";
         
         try (Connection conn = DBConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
-            pstmt.setDate(1, Date.valueOf(overdueDate));
+            pstmt.setDate(1, Date.valueOf(asOf));
             ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                Loan loan = new Loan();
-                loan.setId(rs.getInt("id"));
-                loan.setBookId(rs.getInt("book_id"));
-                loan.setMemberId(rs.getInt("member_id"));
-                loan.setLoanDate(rs.getDate("loan_date").toLocalDate());
-                loan.setBookTitle(rs.getString("title"));
-                loan.setBookAuthor(rs.getString("author"));
-                loan.setMemberName(rs.getString("name"));
-                loan.setMemberEmail(rs.getString("email"));
-                overdueLoans.add(loan);
+            if (rs.next()) {
+                return rs.getInt(1);
             }
         } catch (SQLException e) {
             e.printStackTrace();
         }
-        return overdueLoans;
+        return 0;
     }
 
-    public List<Loan> getMemberLoanHistory(int memberId) {
-        List<Loan> loans = new ArrayList<>();
+    /**
+     * Streams a member's loans, newest first.
+     * 
+     * @return the number of rows handed to the handler
+     */
+    public long streamMemberLoanHistory(int memberId, RowHandler<Loan> handler) throws SQLException {
         String sql = "SELECT l.*, b.title, b.author " +
                     "FROM loans l " +
                     "JOIN books b ON l.book_id = b.id " +
                     "WHERE l.member_id = ? " +
                     "ORDER BY l.loan_date DESC";
-        
+        return streamLoans(sql, pstmt -> pstmt.setInt(1, memberId), false, handler);
+    }
+
+    private long streamLoans(String sql, ParameterBinder binder, boolean withMember,
+                             RowHandler<Loan> handler) throws SQLException {
+        long count = 0;
         try (Connection conn = DBConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
+            binder.bind(pstmt);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    count++;
+                    if (!handler.handle(mapLoan(rs, withMember))) {
+                        break;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private Loan mapLoan(ResultSet rs, boolean withMember) throws SQLException {
+        Loan loan = new Loan();
+        loan.setId(rs.getInt("id"));
+        loan.setBookId(rs.getInt("book_id"));
+        loan.setMemberId(rs.getInt("member_id"));
+        loan.setLoanDate(rs.getDate("loan_date").toLocalDate());
+        if (rs.getDate("due_date") != null) {
+            loan.setDueDate(rs.getDate("due_date").toLocalDate());
+        }
+        if (rs.getDate("return_date") != null) {
+            loan.setReturnDate(rs.getDate("return_date").toLocalDate());
+        }
+        loan.setBookTitle(rs.getString("title"));
+        loan.setBookAuthor(rs.getString("author"));
+        if (withMember) {
+            loan.setMemberName(rs.getString("name"));
+            loan.setMemberEmail(rs.getString("email"));
+        }
+        return loan;
+    }
+
+    private interface ParameterBinder {
+        void bind(PreparedStatement pstmt) throws SQLException;
+    }
+
+    // Post-commit bookkeeping; the availability mirrors are updated by the
+    // commit hooks that lendWork and returnWork register
+    private void bookLent(int bookId) {
+        ReportCache.invalidate("loans", "books");
+        DueDateScheduler.loansAdded();
+    }
+
+    private void bookReturned(int bookId) {
+        ReportCache.invalidate("loans", "books");
+    }
+
+    private boolean memberExists(Connection conn, int memberId) throws SQLException {
+        String sql = "SELECT 1 FROM members WHERE id = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setInt(1, memberId);
-            ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                Loan loan = new Loan();
-                loan.setId(rs.getInt("id"));
-                loan.setBookId(rs.getInt("book_id"));
-                loan.setMemberId(rs.getInt("member_id"));
-                loan.setLoanDate(rs.getDate("loan_date").toLocalDate());
-                if (rs.getDate("return_date") != null) {
-                    loan.setReturnDate(rs.getDate("return_date").toLocalDate());
-                }
-                loan.setBookTitle(rs.getString("title"));
-                loan.setBookAuthor(rs.getString("author"));
-                loans.add(loan);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
-        return loans;
     }
 
-    private boolean isBookAvailable(int bookId) {
-        String sql = "SELECT available FROM books WHERE id = ?";
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
+    private Map<Integer, LoanOutcome> allFailed(List<Integer> bookIds) {
+        Map<Integer, LoanOutcome> outcomes = new LinkedHashMap<>();
+        for (int bookId : bookIds) {
+            outcomes.put(bookId, LoanOutcome.FAILED);
+        }
+        return outcomes;
+    }
+
+    private boolean bookExists(Connection conn, int bookId) throws SQLException {
+        String sql = "SELECT 1 FROM books WHERE id = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setInt(1, bookId);
-            ResultSet rs = pstmt.executeQuery();
-            
-            if (rs.next()) {
-                return rs.getInt("available") == 1;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
-        return false;
+    }
+
+    private static void bindLoan(PreparedStatement pstmt, int bookId, int memberId, LocalDate today) throws SQLException {
+        pstmt.setInt(1, memberId);
+        pstmt.setDate(2, Date.valueOf(today));
+        pstmt.setLong(3, Date.valueOf(today).getTime());
+        pstmt.setInt(4, bookId);
+    }
+}
+
+// LoanOutcome.java - Result of a checkout or return request
+package service;
+
+public enum LoanOutcome {
+    SUCCESS,
+    ALREADY_ON_LOAN,
+    BOOK_NOT_FOUND,
+    MEMBER_NOT_FOUND,
+    NOT_ON_LOAN,
+    FAILED
+}
+
+// ReportFormat.java - Output formats supported by ReportWriter
+package service;
+
+public enum ReportFormat {
+    TEXT,
+    CSV,
+    JSON
+}
+
+// ReportWriter.java - Streams a report to a Writer as text, CSV or JSON
+package service;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes a report row by row, so memory use does not grow with the report.
+ * 
+ * A report is a title, then any number of name/value fields, then sections, each
+ * with fixed columns and any number of rows:
+ * <pre>
+ * try (ReportWriter out = ReportWriter.toFile(path, ReportFormat.CSV)) {
+ *     out.begin("Overdue Books");
+ *     out.field("Generated on", LocalDate.now());
+ *     out.section(null, "Book", "Member");
+ *     out.row(title, name);
+ * }
+ * </pre>
+ * TEXT prints fields as "Name: value" and each row as one "Column: value" line
+ * per column followed by "---". CSV writes each section as a header row and data
+ * rows; fields are left out so an export loads as a plain table. JSON writes
+ * {"title", "fields": {...}, "sections": [{"name", "rows": [{...}]}]}.
+ * close() finishes the document and closes the underlying writer.
+ */
+public class ReportWriter implements Closeable {
+    private final Writer out;
+    private final ReportFormat format;
+    private String[] columns;
+    private boolean inFields;
+    private boolean inSections;
+    private boolean firstField = true;
+    private boolean firstSection = true;
+    private boolean firstRow;
+    
+    public ReportWriter(Writer out, ReportFormat format) {
+        this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out);
+        this.format = format;
+    }
+    
+    public ReportWriter(OutputStream out, ReportFormat format) {
+        this(new OutputStreamWriter(out, StandardCharsets.UTF_8), format);
+    }
+    
+    public static ReportWriter toFile(Path file, ReportFormat format) throws IOException {
+        return new ReportWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), format);
+    }
+    
+    public void begin(String title) throws IOException {
+        switch (format) {
+            case TEXT:
+                out.write("=== " + title + " ===\n");
+                break;
+            case CSV:
+                break;
+            case JSON:
+                out.write("{\"title\":" + jsonString(title));
+                break;
+        }
+    }
+    
+    public void field(String name, Object value) throws IOException {
+        switch (format) {
+            case TEXT:
+                out.write(name + ": " + value + "\n");
+                break;
+            case CSV:
+                break;
+            case JSON:
+                if (firstField) {
+                    out.write(",\"fields\":{");
+                    inFields = true;
+                    firstField = false;
+                } else {
+                    out.write(',');
+                }
+                out.write(jsonString(name) + ":" + jsonValue(value));
+                break;
+        }
+    }
+    
+    /**
+     * Starts a section; name may be null for a report with a single unnamed table.
+     */
+    public void section(String name, String... columns) throws IOException {
+        this.columns = columns;
+        firstRow = true;
+        switch (format) {
+            case TEXT:
+                out.write(name == null ? "\n" : "\n" + name + ":\n");
+                break;
+            case CSV:
+                if (!firstSection) {
+                    out.write("\r\n");
+                }
+                if (name != null) {
+                    out.write(csvValue(name) + "\r\n");
+                }
+                writeCsvRow(columns);
+                break;
+            case JSON:
+                closeFields();
+                if (firstSection) {
+                    out.write(",\"sections\":[");
+                    inSections = true;
+                } else {
+                    out.write("]},");
+                }
+                out.write("{\"name\":" + (name == null ? "null" : jsonString(name)) + ",\"rows\":[");
+                break;
+        }
+        firstSection = false;
+    }
+    
+    public void row(Object... values) throws IOException {
+        if (columns == null) {
+            throw new IllegalStateException("row() called before section()");
+        }
+        if (values.length != columns.length) {
+            throw new IllegalArgumentException("Expected " + columns.length + " values, got " + values.length);
+        }
+        switch (format) {
+            case TEXT:
+                for (int i = 0; i < columns.length; i++) {
+                    out.write(columns[i] + ": " + values[i] + "\n");
+                }
+                out.write("---\n");
+                break;
+            case CSV:
+                writeCsvRow(values);
+                break;
+            case JSON:
+                out.write(firstRow ? "{" : ",{");
+                for (int i = 0; i < columns.length; i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    out.write(jsonString(columns[i]) + ":" + jsonValue(values[i]));
+                }
+                out.write('}');
+                break;
+        }
+        firstRow = false;
+    }
+    
+    public void flush() throws IOException {
+        out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            if (format == ReportFormat.JSON) {
+                closeFields();
+                if (inSections) {
+                    out.write("]}]");
+                }
+                out.write("}\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+    
+    private void closeFields() throws IOException {
+        if (inFields) {
+            out.write('}');
+            inFields = false;
+        }
+    }
+    
+    private void writeCsvRow(Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(csvValue(values[i]));
+        }
+        out.write("\r\n");
+    }
+    
+    private static String csvValue(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value.toString();
+        if (text.indexOf(',') >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+        return text;
+    }
+    
+    private static String jsonValue(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return value.toString();
+        }
+        return jsonString(value.toString());
+    }
+    
+    private static String jsonString(String text) {
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+}
+
+// ReportService.java - Generates various reports for the library
+package service;
+
+import dao.BookDAO;
+import dao.MemberDAO;
+import model.Book;
+import model.Member;
+import util.DBConnection;
+import util.ReportCache;
+import util.TopKCounter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ReportService {
+    private static final String[] ALL_TABLES = {"books", "members", "loans"};
+    private static final String[] BOOK_LOANS = {"books", "loans"};
+    private static final String[] MEMBER_LOANS = {"members", "loans"};
+
+    private LibraryCounters libraryCounters = new LibraryCounters();
+    private LoanService loanService = new LoanService();
+    private BookDAO bookDAO = new BookDAO();
+    private MemberDAO memberDAO = new MemberDAO();
+
+    /**
+     * Totals come from the trigger-maintained library_counters table; only the
+     * overdue count, which changes with the calendar, is queried, through the
+     * partial index on open loans.
+     */
+    public Map<String, Integer> getLibraryStatistics() {
+        // Keyed by day because the overdue count moves with the calendar
+        return new HashMap<>(ReportCache.get("statistics:" + LocalDate.now(), ALL_TABLES,
+                this::computeLibraryStatistics));
+    }
+
+    private Map<String, Integer> computeLibraryStatistics() {
+        Map<String, Integer> stats = new HashMap<>();
+        Map<String, Integer> counters = libraryCounters.getAll();
+        stats.put("totalBooks", counters.getOrDefault(LibraryCounters.TOTAL_BOOKS, 0));
+        stats.put("availableBooks", counters.getOrDefault(LibraryCounters.AVAILABLE_BOOKS, 0));
+        stats.put("totalMembers", counters.getOrDefault(LibraryCounters.TOTAL_MEMBERS, 0));
+        stats.put("activeLoans", counters.getOrDefault(LibraryCounters.ACTIVE_LOANS, 0));
+        stats.put("overdueBooks", getOverdueBooksCount());
+        return stats;
+    }
+
+    /**
+     * Reads a single counter, e.g. LibraryCounters.TOTAL_BOOKS.
+     */
+    public int getCounter(String name) {
+        return libraryCounters.get(name);
+    }
+
+    public int getOverdueBooksCount() {
+        return loanService.countOverdueLoans(LocalDate.now());
+    }
+
+    /**
+     * Most borrowed books, most borrowed first, from the running top-K in
+     * LoanPopularity. Counts are estimates with a small bounded over-count;
+     * use getMostPopularBooksExact for audits.
+     */
+    public Map<String, Integer> getMostPopularBooks(int limit) {
+        return new LinkedHashMap<>(ReportCache.get("popularBooks:" + limit, BOOK_LOANS,
+                () -> computeMostPopularBooks(limit)));
+    }
+
+    private Map<String, Integer> computeMostPopularBooks(int limit) {
+        if (limit > LoanPopularity.getCapacity()) {
+            return getMostPopularBooksExact(limit);
+        }
+        
+        Map<String, Integer> popularBooks = new LinkedHashMap<>();
+        // Ask for every tracked entry so deleted books don't leave the list short
+        for (TopKCounter.Entry entry : LoanPopularity.topBooks(LoanPopularity.getCapacity())) {
+            if (popularBooks.size() == limit) {
+                break;
+            }
+            Book book = bookDAO.getBookById(entry.getKey());
+            if (book != null) {
+                popularBooks.put(book.getTitle(), (int) entry.getCount());
+            }
+        }
+        return popularBooks;
+    }
+
+    /**
+     * Most active members, most loans first; see getMostPopularBooks.
+     */
+    public Map<String, Integer> getMostActiveMembers(int limit) {
+        return new LinkedHashMap<>(ReportCache.get("activeMembers:" + limit, MEMBER_LOANS,
+                () -> computeMostActiveMembers(limit)));
+    }
+
+    private Map<String, Integer> computeMostActiveMembers(int limit) {
+        if (limit > LoanPopularity.getCapacity()) {
+            return getMostActiveMembersExact(limit);
+        }
+        
+        Map<String, Integer> activeMembers = new LinkedHashMap<>();
+        for (TopKCounter.Entry entry : LoanPopularity.topMembers(LoanPopularity.getCapacity())) {
+            if (activeMembers.size() == limit) {
+                break;
+            }
+            Member member = memberDAO.getMemberById(entry.getKey());
+            if (member != null) {
+                activeMembers.put(member.getName(), (int) entry.getCount());
+            }
+        }
+        return activeMembers;
+    }
+
+    /**
+     * Exact loan counts per book, computed from the loans table. Scans every loan.
+     */
+    public Map<String, Integer> getMostPopularBooksExact(int limit) {
+        Map<String, Integer> popularBooks = new LinkedHashMap<>();
+        String sql = "SELECT b.title, COUNT(l.id) as loan_count " +
+                    "FROM books b " +
+                    "LEFT JOIN loans l ON b.id = l.book_id " +
+                    "GROUP BY b.id, b.title " +
+                    "ORDER BY loan_count DESC " +
+                    "LIMIT ?";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setInt(1, limit);
+            ResultSet rs = pstmt.executeQuery();
+            
+            while (rs.next()) {
+                popularBooks.put(rs.getString("title"), rs.getInt("loan_count"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        
+        return popularBooks;
+    }
+
+    /**
+     * Exact loan counts per member, computed from the loans table. Scans every loan.
+     */
+    public Map<String, Integer> getMostActiveMembersExact(int limit) {
+        Map<String, Integer> activeMembers = new LinkedHashMap<>();
+        String sql = "SELECT m.name, COUNT(l.id) as loan_count " +
+                    "FROM members m " +
+                    "LEFT JOIN loans l ON m.id = l.member_id " +
+                    "GROUP BY m.id, m.name " +
+                    "ORDER BY loan_count DESC " +
+                    "LIMIT ?";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setInt(1, limit);
+            ResultSet rs = pstmt.executeQuery();
+            
+            while (rs.next()) {
+                activeMembers.put(rs.getString("name"), rs.getInt("loan_count"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        
+        return activeMembers;
+    }
+
+    /**
+     * Loan activity between two dates, inclusive, read from the daily rollups:
+     * checkouts, returns, lateReturns and distinctBorrowers.
+     */
+    public Map<String, Integer> getLoanActivity(LocalDate from, LocalDate to) {
+        return new HashMap<>(ReportCache.get("activity:" + from + ":" + to, ALL_TABLES,
+                () -> computeLoanActivity(from, to)));
+    }
+
+    private Map<String, Integer> computeLoanActivity(LocalDate from, LocalDate to) {
+        Map<String, Integer> activity = new HashMap<>();
+        String totalsSql = "SELECT COALESCE(SUM(checkouts), 0) AS checkouts, COALESCE(SUM(returns), 0) AS returns, " +
+                          "COALESCE(SUM(late_returns), 0) AS late_returns " +
+                          "FROM loan_daily_stats WHERE day BETWEEN ? AND ?";
+        String borrowersSql = "SELECT COUNT(DISTINCT member_id) AS borrowers " +
+                             "FROM loan_daily_members WHERE day BETWEEN ? AND ?";
+        
+        try (Connection conn = DBConnection.getConnection()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(totalsSql)) {
+                bindRange(pstmt, from, to);
+                ResultSet rs = pstmt.executeQuery();
+                if (rs.next()) {
+                    activity.put("checkouts", rs.getInt("checkouts"));
+                    activity.put("returns", rs.getInt("returns"));
+                    activity.put("lateReturns", rs.getInt("late_returns"));
+                }
+            }
+            
+            try (PreparedStatement pstmt = conn.prepareStatement(borrowersSql)) {
+                bindRange(pstmt, from, to);
+                ResultSet rs = pstmt.executeQuery();
+                if (rs.next()) {
+                    activity.put("distinctBorrowers", rs.getInt("borrowers"));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        
+        return activity;
+    }
+
+    /**
+     * Checkouts per day between two dates, inclusive, in date order. Days without
+     * activity are omitted.
+     */
+    public Map<LocalDate, Integer> getDailyCheckouts(LocalDate from, LocalDate to) {
+        Map<LocalDate, Integer> daily = new LinkedHashMap<>();
+        String sql = "SELECT day, checkouts FROM loan_daily_stats WHERE day BETWEEN ? AND ? ORDER BY day";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            bindRange(pstmt, from, to);
+            ResultSet rs = pstmt.executeQuery();
+            
+            while (rs.next()) {
+                daily.put(rs.getDate("day").toLocalDate(), rs.getInt("checkouts"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        
+        return daily;
+    }
+
+    /**
+     * Most borrowed books between two dates, inclusive, from the daily rollups.
+     */
+    public Map<String, Integer> getMostPopularBooks(LocalDate from, LocalDate to, int limit) {
+        return new LinkedHashMap<>(ReportCache.get("popularBooks:" + from + ":" + to + ":" + limit, BOOK_LOANS,
+                () -> computeMostPopularBooks(from, to, limit)));
+    }
+
+    private Map<String, Integer> computeMostPopularBooks(LocalDate from, LocalDate to, int limit) {
+        Map<String, Integer> popularBooks = new LinkedHashMap<>();
+        String sql = "SELECT b.title, SUM(d.checkouts) as loan_count " +
+                    "FROM loan_daily_books d " +
+                    "JOIN books b ON b.id = d.book_id " +
+                    "WHERE d.day BETWEEN ? AND ? " +
+                    "GROUP BY d.book_id " +
+                    "ORDER BY loan_count DESC " +
+                    "LIMIT ?";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            bindRange(pstmt, from, to);
+            pstmt.setInt(3, limit);
+            ResultSet rs = pstmt.executeQuery();
+            
+            while (rs.next()) {
+                popularBooks.put(rs.getString("title"), rs.getInt("loan_count"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        
+        return popularBooks;
+    }
+
+    /**
+     * Members with the most checkouts between two dates, inclusive, from the daily rollups.
+     */
+    public Map<String, Integer> getMostActiveMembers(LocalDate from, LocalDate to, int limit) {
+        return new LinkedHashMap<>(ReportCache.get("activeMembers:" + from + ":" + to + ":" + limit, MEMBER_LOANS,
+                () -> computeMostActiveMembers(from, to, limit)));
+    }
+
+    private Map<String, Integer> computeMostActiveMembers(LocalDate from, LocalDate to, int limit) {
+        Map<String, Integer> activeMembers = new LinkedHashMap<>();
+        String sql = "SELECT m.name, SUM(d.checkouts) as loan_count " +
+                    "FROM loan_daily_members d " +
+                    "JOIN members m ON m.id = d.member_id " +
+                    "WHERE d.day BETWEEN ? AND ? " +
+                    "GROUP BY d.member_id " +
+                    "ORDER BY loan_count DESC " +
+                    "LIMIT ?";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            bindRange(pstmt, from, to);
+            pstmt.setInt(3, limit);
+            ResultSet rs = pstmt.executeQuery();
+            
+            while (rs.next()) {
+                activeMembers.put(rs.getString("name"), rs.getInt("loan_count"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        
+        return activeMembers;
+    }
+
+    /**
+     * Activity report for an arbitrary period, read entirely from the rollups.
+     */
+    public String generatePeriodReport(LocalDate from, LocalDate to) {
+        return ReportCache.get("periodReport:" + from + ":" + to, ALL_TABLES,
+                () -> buildPeriodReport(from, to));
+    }
+
+    private String buildPeriodReport(LocalDate from, LocalDate to) {
+        StringBuilder report = new StringBuilder();
+        
+        report.append("=== LIBRARY ACTIVITY REPORT ===\n");
+        report.append("Period: ").append(from).append(" to ").append(to).append("\n\n");
+        appendActivity(report, from, to);
+        
+        return report.toString();
+    }
+
+    private void appendActivity(StringBuilder report, LocalDate from, LocalDate to) {
+        Map<String, Integer> activity = getLoanActivity(from, to);
+        report.append("LOAN ACTIVITY:\n");
+        report.append("Checkouts: ").append(activity.getOrDefault("checkouts", 0)).append("\n");
+        report.append("Returns: ").append(activity.getOrDefault("returns", 0)).append("\n");
+        report.append("Late Returns: ").append(activity.getOrDefault("lateReturns", 0)).append("\n");
+        report.append("Distinct Borrowers: ").append(activity.getOrDefault("distinctBorrowers", 0)).append("\n\n");
+        
+        report.append("TOP 5 BOOKS IN PERIOD:\n");
+        int rank = 1;
+        for (Map.Entry<String, Integer> entry : getMostPopularBooks(from, to, 5).entrySet()) {
+            report.append(rank++).append(". ").append(entry.getKey())
+                  .append(" (").append(entry.getValue()).append(" loans)\n");
+        }
+        
+        report.append("\nTOP 5 MEMBERS IN PERIOD:\n");
+        rank = 1;
+        for (Map.Entry<String, Integer> entry : getMostActiveMembers(from, to, 5).entrySet()) {
+            report.append(rank++).append(". ").append(entry.getKey())
+                  .append(" (").append(entry.getValue()).append(" loans)\n");
+        }
+    }
+
+    /**
+     * Writes the monthly report to out in the given format, then closes out.
+     */
+    public void writeMonthlyReport(Writer out, ReportFormat format) throws IOException {
+        LocalDate today = LocalDate.now();
+        try (ReportWriter report = new ReportWriter(out, format)) {
+            report.begin("MONTHLY LIBRARY REPORT");
+            report.field("Generated on", today);
+            
+            Map<String, Integer> stats = getLibraryStatistics();
+            report.section("Library Statistics", "Statistic", "Value");
+            report.row("Total Books", stats.getOrDefault("totalBooks", 0));
+            report.row("Available Books", stats.getOrDefault("availableBooks", 0));
+            report.row("Total Members", stats.getOrDefault("totalMembers", 0));
+            report.row("Active Loans", stats.getOrDefault("activeLoans", 0));
+            report.row("Overdue Books", stats.getOrDefault("overdueBooks", 0));
+            
+            writeRanking(report, "Top 5 Popular Books", "Title", getMostPopularBooks(5));
+            writeRanking(report, "Top 5 Active Members", "Member", getMostActiveMembers(5));
+            
+            LocalDate monthStart = today.withDayOfMonth(1);
+            Map<String, Integer> activity = getLoanActivity(monthStart, today);
+            report.section("This Month (" + monthStart + " to " + today + ")", "Statistic", "Value");
+            report.row("Checkouts", activity.getOrDefault("checkouts", 0));
+            report.row("Returns", activity.getOrDefault("returns", 0));
+            report.row("Late Returns", activity.getOrDefault("lateReturns", 0));
+            report.row("Distinct Borrowers", activity.getOrDefault("distinctBorrowers", 0));
+        }
+    }
+
+    /**
+     * Writes the monthly report straight to a file.
+     * 
+     * @return true if the whole report was written
+     */
+    public boolean exportMonthlyReport(Path file, ReportFormat format) {
+        try {
+            writeMonthlyReport(Files.newBufferedWriter(file, StandardCharsets.UTF_8), format);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error exporting monthly report: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    private void writeRanking(ReportWriter report, String name, String column, Map<String, Integer> ranking)
+            throws IOException {
+        report.section(name, "Rank", column, "Loans");
+        int rank = 1;
+        for (Map.Entry<String, Integer> entry : ranking.entrySet()) {
+            report.row(rank++, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Loads the loans table into a columnar snapshot for the heavier analytics
+     * (loan durations, overdue distribution, per-author demand). Loading reads
+     * every loan once; keep the snapshot for as many queries as can share it.
+     * 
+     * @return the snapshot, or null if the loans could not be read
+     */
+    public LoanSnapshot loadLoanSnapshot() {
+        try {
+            return LoanSnapshot.load();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private void bindRange(PreparedStatement pstmt, LocalDate from, LocalDate to) throws SQLException {
+        pstmt.setDate(1, Date.valueOf(from));
+        pstmt.setDate(2, Date.valueOf(to));
+    }
+
+    public String generateMonthlyReport() {
+        return ReportCache.get("monthlyReport:" + LocalDate.now(), ALL_TABLES, this::buildMonthlyReport);
+    }
+
+    private String buildMonthlyReport() {
+        StringWriter report = new StringWriter();
+        try {
+            writeMonthlyReport(report, ReportFormat.TEXT);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return report.toString();
+    }
+}
+
+// LibraryCounters.java - Running totals kept in the library_counters table
+package service;
+
+import util.DBConnection;
+
+import java.sql.*;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Totals for the dashboard, read from library_counters instead of COUNT(*) scans.
+ * Triggers on books, members and loans adjust the counters inside the same
+ * transaction as every write, so they stay exact whichever desk writes.
+ * reconcile() recounts from the real tables to repair drift (e.g. rows edited
+ * with the triggers dropped) and runs periodically once started.
+ */
+public class LibraryCounters {
+    public static final String TOTAL_BOOKS = "totalBooks";
+    public static final String AVAILABLE_BOOKS = "availableBooks";
+    public static final String TOTAL_MEMBERS = "totalMembers";
+    public static final String ACTIVE_LOANS = "activeLoans";
+    
+    private static final Map<String, String> RECOUNT_SQL = new LinkedHashMap<>();
+    static {
+        RECOUNT_SQL.put(TOTAL_BOOKS, "SELECT COUNT(*) FROM books");
+        RECOUNT_SQL.put(AVAILABLE_BOOKS, "SELECT COUNT(*) FROM books WHERE available = 1");
+        RECOUNT_SQL.put(TOTAL_MEMBERS, "SELECT COUNT(*) FROM members");
+        RECOUNT_SQL.put(ACTIVE_LOANS, "SELECT COUNT(*) FROM loans WHERE return_date IS NULL");
+    }
+    
+    private static final Object RECONCILE_LOCK = new Object();
+    private static ScheduledExecutorService reconciler;
+    
+    public Map<String, Integer> getAll() {
+        Map<String, Integer> counters = new HashMap<>();
+        String sql = "SELECT name, value FROM library_counters";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            
+            while (rs.next()) {
+                counters.put(rs.getString("name"), rs.getInt("value"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return counters;
+    }
+    
+    public int get(String name) {
+        String sql = "SELECT value FROM library_counters WHERE name = ?";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setString(1, name);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return rs.getInt("value");
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+    
+    /**
+     * Recounts every counter from the real tables and corrects any drift.
+     * 
+     * The counts and the stored counters are read together in one read
+     * transaction, outside the write queue, so the scans never hold up
+     * checkouts and returns. Triggers keep moving the counters in step with later
+     * writes, so the drift seen in that snapshot is still the drift afterwards;
+     * it is applied as a delta in a short write. Runs in this process are
+     * serialized, so a manual call overlapping the periodic one cannot apply the
+     * same correction twice.
+     * 
+     * @return the counters that had drifted, mapped to the correction applied
+     */
+    public Map<String, Integer> reconcile() {
+        synchronized (RECONCILE_LOCK) {
+            return recount();
+        }
+    }
+    
+    private Map<String, Integer> recount() {
+        Map<String, Integer> stored = new HashMap<>();
+        Map<String, Integer> actual = new LinkedHashMap<>();
+        
+        try (Connection conn = DBConnection.getConnection()) {
+            // One transaction, so the counts and counters come from the same snapshot;
+            // the pool restores auto-commit when the connection is returned
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT name, value FROM library_counters");
+                 ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    stored.put(rs.getString("name"), rs.getInt("value"));
+                }
+            }
+            for (Map.Entry<String, String> entry : RECOUNT_SQL.entrySet()) {
+                try (PreparedStatement pstmt = conn.prepareStatement(entry.getValue());
+                     ResultSet rs = pstmt.executeQuery()) {
+                    actual.put(entry.getKey(), rs.next() ? rs.getInt(1) : 0);
+                }
+            }
+            conn.rollback();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new LinkedHashMap<>();
+        }
+        
+        Map<String, Integer> corrections = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : actual.entrySet()) {
+            Integer current = stored.get(entry.getKey());
+            if (current == null || !current.equals(entry.getValue())) {
+                corrections.put(entry.getKey(), entry.getValue() - (current == null ? 0 : current));
+            }
+        }
+        if (corrections.isEmpty()) {
+            return corrections;
+        }
+        
+        String applySql = "INSERT INTO library_counters(name, value) VALUES(?, ?) " +
+                          "ON CONFLICT(name) DO UPDATE SET value = value + ?";
+        try {
+            DBConnection.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(applySql)) {
+                    for (Map.Entry<String, Integer> entry : corrections.entrySet()) {
+                        pstmt.setString(1, entry.getKey());
+                        pstmt.setInt(2, actual.get(entry.getKey()));
+                        pstmt.setInt(3, entry.getValue());
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new LinkedHashMap<>();
+        }
+        return corrections;
+    }
+    
+    /**
+     * Runs reconcile() in the background every periodMinutes.
+     */
+    public static synchronized void startReconciliation(long periodMinutes) {
+        if (reconciler != null) {
+            return;
+        }
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "counter-reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            Map<String, Integer> corrections = new LibraryCounters().reconcile();
+            if (!corrections.isEmpty()) {
+                System.err.println("Library counters drifted, corrected by: " + corrections);
+            }
+        }, periodMinutes, periodMinutes, TimeUnit.MINUTES);
+    }
+    
+    public static synchronized void stopReconciliation() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+            reconciler = null;
+        }
+    }
+}
+
+// LoanPopularity.java - Running top-K of the most borrowed books and most active members
+package service;
+
+import util.DBConnection;
+import util.TopKCounter;
+
+import java.sql.*;
+import java.util.List;
+
+/**
+ * Heavy-hitter tracking for the popularity reports, so they no longer group the
+ * whole loans table on every call.
+ * 
+ * New loans are consumed by id from the last one counted, a primary key range
+ * read that returns nothing when no one has lent since. That counts every loan
+ * exactly once, whichever desk wrote it; the first call streams the existing
+ * loans, which Main does in the background at startup. Deleted loans are not
+ * subtracted; ReportService keeps exact queries for audits.
+ */
+public class LoanPopularity {
+    private static final int CAPACITY = Integer.getInteger("library.popularity.capacity", 100);
+    private static final TopKCounter BOOKS = new TopKCounter(CAPACITY);
+    private static final TopKCounter MEMBERS = new TopKCounter(CAPACITY);
+    private static long lastLoanId;
+    
+    private LoanPopularity() {
+    }
+    
+    public static List<TopKCounter.Entry> topBooks(int n) {
+        catchUp();
+        return BOOKS.top(n);
+    }
+    
+    public static List<TopKCounter.Entry> topMembers(int n) {
+        catchUp();
+        return MEMBERS.top(n);
+    }
+    
+    /**
+     * How many books and members are tracked; larger top-N requests need the exact queries.
+     */
+    public static int getCapacity() {
+        return CAPACITY;
+    }
+    
+    /**
+     * Counts loans committed since the last call.
+     */
+    public static synchronized void catchUp() {
+        String sql = "SELECT id, book_id, member_id FROM loans WHERE id > ? ORDER BY id";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setLong(1, lastLoanId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    BOOKS.offer(rs.getInt("book_id"));
+                    MEMBERS.offer(rs.getInt("member_id"));
+                    lastLoanId = rs.getLong("id");
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error reading new loans for popularity: " + e.getMessage());
+        }
+    }
+}
+
+// LoanSnapshot.java - Columnar in-memory copy of the loans table for analytics
+package service;
+
+import model.Book;
+import util.DBConnection;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Immutable column-per-field copy of the loans table: one int per field per
+ * loan instead of a Loan object with joined strings, so millions of loans fit
+ * in a few tens of megabytes. Loan, due and return dates are epoch days; open
+ * loans have NOT_RETURNED as their return day. Book authors are dictionary-encoded.
+ * 
+ * Aggregations split the rows into ranges and sum them in parallel on a
+ * shared fork/join pool sized by library.analytics.parallelism (default: all cores).
+ */
+public class LoanSnapshot {
+    public static final int NOT_RETURNED = Integer.MIN_VALUE;
+    
+    private static final int SPLIT_THRESHOLD = 16_384;
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Integer.getInteger("library.analytics.parallelism", Runtime.getRuntime().availableProcessors()));
+    
+    private final int size;
+    private final int[] bookIds;
+    private final int[] memberIds;
+    private final int[] loanDays;
+    private final int[] dueDays;
+    private final int[] returnDays;
+    // Author code of each loan's book, -1 when the book no longer exists
+    private final int[] authorCodes;
+    private final String[] authors;
+    private final int maxBookId;
+    private final int maxMemberId;
+    private final LocalDate takenOn;
+    
+    private LoanSnapshot(int size, int[] bookIds, int[] memberIds, int[] loanDays, int[] dueDays, int[] returnDays,
+                         int[] authorCodes, String[] authors, int maxBookId, int maxMemberId, LocalDate takenOn) {
+        this.size = size;
+        this.bookIds = bookIds;
+        this.memberIds = memberIds;
+        this.loanDays = loanDays;
+        this.dueDays = dueDays;
+        this.returnDays = returnDays;
+        this.authorCodes = authorCodes;
+        this.authors = authors;
+        this.maxBookId = maxBookId;
+        this.maxMemberId = maxMemberId;
+        this.takenOn = takenOn;
+    }
+    
+    /**
+     * Reads every loan in one streaming pass. Both reads run in one transaction so
+     * loans and authors come from the same point in time.
+     */
+    public static LoanSnapshot load() throws SQLException {
+        try (Connection conn = DBConnection.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                Map<Integer, Integer> authorOfBook = new HashMap<>();
+                Map<String, Integer> authorCodes = new HashMap<>();
+                List<String> authors = new ArrayList<>();
+                try (PreparedStatement pstmt = conn.prepareStatement("SELECT id, author FROM books");
+                     ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        String author = rs.getString("author");
+                        Integer code = authorCodes.get(author);
+                        if (code == null) {
+                            code = authors.size();
+                            authorCodes.put(author, code);
+                            authors.add(author);
+                        }
+                        authorOfBook.put(rs.getInt("id"), code);
+                    }
+                }
+                
+                int capacity = 1_024;
+                int[] bookIds = new int[capacity];
+                int[] memberIds = new int[capacity];
+                int[] loanDays = new int[capacity];
+                int[] dueDays = new int[capacity];
+                int[] returnDays = new int[capacity];
+                int[] bookAuthors = new int[capacity];
+                int size = 0;
+                int maxBookId = 0;
+                int maxMemberId = 0;
+                
+                String sql = "SELECT book_id, member_id, loan_date, due_date, return_date FROM loans ORDER BY id";
+                try (PreparedStatement pstmt = conn.prepareStatement(sql);
+                     ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (size == capacity) {
+                            capacity += capacity >> 1;
+                            bookIds = Arrays.copyOf(bookIds, capacity);
+                            memberIds = Arrays.copyOf(memberIds, capacity);
+                            loanDays = Arrays.copyOf(loanDays, capacity);
+                            dueDays = Arrays.copyOf(dueDays, capacity);
+                            returnDays = Arrays.copyOf(returnDays, capacity);
+                            bookAuthors = Arrays.copyOf(bookAuthors, capacity);
+                        }
+                        int bookId = rs.getInt("book_id");
+                        Date due = rs.getDate("due_date");
+                        Date returned = rs.getDate("return_date");
+                        bookIds[size] = bookId;
+                        memberIds[size] = rs.getInt("member_id");
+                        loanDays[size] = (int) rs.getDate("loan_date").toLocalDate().toEpochDay();
+                        dueDays[size] = due == null
+                                ? loanDays[size] + Book.DEFAULT_LOAN_PERIOD_DAYS
+                                : (int) due.toLocalDate().toEpochDay();
+                        returnDays[size] = returned == null ? NOT_RETURNED : (int) returned.toLocalDate().toEpochDay();
+                        bookAuthors[size] = authorOfBook.getOrDefault(bookId, -1);
+                        maxBookId = Math.max(maxBookId, bookId);
+                        maxMemberId = Math.max(maxMemberId, memberIds[size]);
+                        size++;
+                    }
+                }
+                
+                return new LoanSnapshot(size, bookIds, memberIds, loanDays, dueDays, returnDays, bookAuthors,
+                        authors.toArray(new String[0]), maxBookId, maxMemberId, LocalDate.now());
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public LocalDate getTakenOn() {
+        return takenOn;
+    }
+    
+    /**
+     * Returned loans by how many days they were out: element d counts loans kept
+     * d days, and the last element every loan kept maxDays or longer.
+     */
+    public long[] loanDurationHistogram(int maxDays) {
+        return histogram(maxDays + 1, i -> returnDays[i] == NOT_RETURNED
+                ? -1
+                : Math.min(returnDays[i] - loanDays[i], maxDays));
+    }
+    
+    /**
+     * Mean days out of returned loans, or 0 when none have been returned.
+     */
+    public double averageLoanDuration() {
+        long[] totals = aggregate(2, (i, sums) -> {
+            if (returnDays[i] != NOT_RETURNED) {
+                sums[0] += returnDays[i] - loanDays[i];
+                sums[1]++;
+            }
+        });
+        return totals[1] == 0 ? 0.0 : (double) totals[0] / totals[1];
+    }
+    
+    /**
+     * Loans still out on asOf by how many days past their due date they are:
+     * element d counts loans d + 1 days overdue, the last element maxDays or more.
+     */
+    public long[] overdueDistribution(LocalDate asOf, int maxDays) {
+        int today = (int) asOf.toEpochDay();
+        return histogram(maxDays, i -> {
+            if (returnDays[i] != NOT_RETURNED || dueDays[i] >= today) {
+                return -1;
+            }
+            return Math.min(today - dueDays[i], maxDays) - 1;
+        });
+    }
+
+    /**
+     * Returned loans by how many days after their due date they came back: element
+     * d counts returns d days late (0 = on time or early), the last maxDays or more.
+     */
+    public long[] lateReturnHistogram(int maxDays) {
+        return histogram(maxDays + 1, i -> returnDays[i] == NOT_RETURNED
+                ? -1
+                : Math.min(Math.max(returnDays[i] - dueDays[i], 0), maxDays));
+    }
+    
+    /**
+     * Checkouts per author between two dates, inclusive, most borrowed first.
+     */
+    public Map<String, Long> demandByAuthor(LocalDate from, LocalDate to) {
+        int first = (int) from.toEpochDay();
+        int last = (int) to.toEpochDay();
+        long[] counts = histogram(authors.length, i ->
+                loanDays[i] >= first && loanDays[i] <= last ? authorCodes[i] : -1);
+        
+        Integer[] order = new Integer[authors.length];
+        for (int code = 0; code < order.length; code++) {
+            order[code] = code;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+        
+        Map<String, Long> demand = new LinkedHashMap<>();
+        for (int code : order) {
+            if (counts[code] > 0) {
+                demand.put(authors[code], counts[code]);
+            }
+        }
+        return demand;
+    }
+    
+    /**
+     * Checkouts per book id between two dates, inclusive.
+     */
+    public Map<Integer, Long> demandByBook(LocalDate from, LocalDate to) {
+        int first = (int) from.toEpochDay();
+        int last = (int) to.toEpochDay();
+        long[] counts = histogram(maxBookId + 1, i ->
+                loanDays[i] >= first && loanDays[i] <= last ? bookIds[i] : -1);
+        
+        Map<Integer, Long> demand = new HashMap<>();
+        for (int bookId = 0; bookId < counts.length; bookId++) {
+            if (counts[bookId] > 0) {
+                demand.put(bookId, counts[bookId]);
+            }
+        }
+        return demand;
+    }
+    
+    /**
+     * Number of different members who borrowed between two dates, inclusive.
+     */
+    public int distinctBorrowers(LocalDate from, LocalDate to) {
+        int first = (int) from.toEpochDay();
+        int last = (int) to.toEpochDay();
+        long[] loansPerMember = histogram(maxMemberId + 1, i ->
+                loanDays[i] >= first && loanDays[i] <= last ? memberIds[i] : -1);
+        
+        int borrowers = 0;
+        for (long loans : loansPerMember) {
+            if (loans > 0) {
+                borrowers++;
+            }
+        }
+        return borrowers;
+    }
+    
+    private long[] histogram(int buckets, IntUnaryOperator bucketOf) {
+        return aggregate(buckets, (row, counts) -> {
+            int bucket = bucketOf.applyAsInt(row);
+            if (bucket >= 0) {
+                counts[bucket]++;
+            }
+        });
+    }
+    
+    private long[] aggregate(int width, RowAccumulator accumulator) {
+        // A few ranges per worker, so wide results are not allocated once per tiny range
+        int rangeSize = Math.max(SPLIT_THRESHOLD, size / (POOL.getParallelism() * 4));
+        return POOL.invoke(new AggregateTask(0, size, rangeSize, width, accumulator));
+    }
+    
+    private interface RowAccumulator {
+        void accumulate(int row, long[] sums);
+    }
+    
+    /**
+     * Accumulates rows [from, to) into a long[] of the given width, splitting the
+     * range in half until it is at most rangeSize rows, then adding the halves' sums.
+     */
+    private static final class AggregateTask extends RecursiveTask<long[]> {
+        private final int from;
+        private final int to;
+        private final int rangeSize;
+        private final int width;
+        private final RowAccumulator accumulator;
+        
+        AggregateTask(int from, int to, int rangeSize, int width, RowAccumulator accumulator) {
+            this.from = from;
+            this.to = to;
+            this.rangeSize = rangeSize;
+            this.width = width;
+            this.accumulator = accumulator;
+        }
+        
+        @Override
+        protected long[] compute() {
+            if (to - from <= rangeSize) {
+                long[] sums = new long[width];
+                for (int i = from; i < to; i++) {
+                    accumulator.accumulate(i, sums);
+                }
+                return sums;
+            }
+            
+            int mid = (from + to) >>> 1;
+            AggregateTask left = new AggregateTask(from, mid, rangeSize, width, accumulator);
+            AggregateTask right = new AggregateTask(mid, to, rangeSize, width, accumulator);
+            left.fork();
+            long[] sums = right.compute();
+            long[] leftSums = left.join();
+            for (int i = 0; i < width; i++) {
+                sums[i] += leftSums[i];
+            }
+            return sums;
+        }
+    }
+}
+
+// DueDateScheduler.java - Fires due reminders and overdue notices when they fall due
+package service;
+
+import util.ChangeListener;
+import util.ChangeMonitor;
+import util.DBConnection;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the next reminder and overdue notice of every open loan in a priority
+ * queue ordered by when they are due, and sleeps until the earliest one.
+ * 
+ * Events are sent at library.notifications.sendAt (default 09:00) on their day:
+ * a reminder library.notifications.reminderDaysBefore days before the due date
+ * (default 2), and an overdue notice the day after it, repeated every
+ * library.notifications.overdueRepeatDays days (default 7) until the book is back.
+ * Events whose time passed while the scheduler was not running are sent at once.
+ * 
+ * The queue is rebuilt from the open loans at start(). New loans, from this desk
+ * or others, are picked up by loan id; returns are not removed from the queue but
+ * are skipped when their event comes up, because an event only queues its notice
+ * if the loan is still out. All queue work runs on the scheduler's single thread.
+ */
+public class DueDateScheduler {
+    private static final int REMINDER_DAYS_BEFORE = NotificationService.REMINDER_DAYS_BEFORE;
+    private static final int OVERDUE_REPEAT_DAYS = NotificationService.OVERDUE_REPEAT_DAYS;
+    private static final LocalTime SEND_AT = LocalTime.parse(System.getProperty("library.notifications.sendAt", "09:00"));
+    
+    private static final PriorityQueue<Event> QUEUE = new PriorityQueue<>();
+    private static final AtomicBoolean CATCH_UP_PENDING = new AtomicBoolean();
+    private static final NotificationService NOTIFICATIONS = new NotificationService();
+    
+    private static ScheduledExecutorService executor;
+    private static ScheduledFuture<?> wakeUp;
+    private static long wakeUpAt;
+    private static long lastLoanId;
+    
+    static {
+        ChangeMonitor.addListener("loans", new ChangeListener() {
+            @Override
+            public void rowsChanged(Set<Integer> ids) {
+                loansAdded();
+            }
+            
+            @Override
+            public void tableChanged() {
+                submit(DueDateScheduler::rebuild);
+            }
+        });
+    }
+    
+    private DueDateScheduler() {
+    }
+    
+    public static synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "due-date-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.execute(DueDateScheduler::rebuild);
+    }
+    
+    public static synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+    
+    /**
+     * Schedules loans created since the last look. Called after every checkout;
+     * calls that arrive while a catch-up is already queued share it.
+     */
+    public static void loansAdded() {
+        if (CATCH_UP_PENDING.compareAndSet(false, true)) {
+            submit(() -> {
+                CATCH_UP_PENDING.set(false);
+                catchUp();
+            });
+        }
+    }
+    
+    private static synchronized void submit(Runnable task) {
+        if (executor != null) {
+            executor.execute(task);
+        }
+    }
+    
+    private static void rebuild() {
+        QUEUE.clear();
+        String maxSql = "SELECT COALESCE(MAX(id), 0) FROM loans";
+        String openSql = "SELECT id, due_date FROM loans WHERE return_date IS NULL AND id <= ?";
+        
+        try (Connection conn = DBConnection.getConnection()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(maxSql);
+                 ResultSet rs = pstmt.executeQuery()) {
+                lastLoanId = rs.next() ? rs.getLong(1) : 0;
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(openSql)) {
+                pstmt.setLong(1, lastLoanId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        schedule(rs.getInt("id"), rs.getDate("due_date"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error loading open loans for notifications: " + e.getMessage());
+        }
+        rearm();
+    }
+    
+    private static void catchUp() {
+        String sql = "SELECT id, due_date, return_date FROM loans WHERE id > ? ORDER BY id";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setLong(1, lastLoanId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    lastLoanId = rs.getLong("id");
+                    if (rs.getDate("return_date") == null) {
+                        schedule(rs.getInt("id"), rs.getDate("due_date"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error reading new loans for notifications: " + e.getMessage());
+        }
+        rearm();
+    }
+    
+    private static void schedule(int loanId, Date dueDate) {
+        if (dueDate == null) {
+            return;
+        }
+        LocalDate due = dueDate.toLocalDate();
+        LocalDate today = LocalDate.now();
+        
+        // A reminder whose day has passed (e.g. while the application was down) is
+        // still sent, straight away, as long as the book is not yet due
+        if (!due.isBefore(today)) {
+            QUEUE.add(new Event(due.minusDays(REMINDER_DAYS_BEFORE), loanId, due, false));
+        }
+        
+        // First overdue notice the day after the due date, then every OVERDUE_REPEAT_DAYS.
+        // A loan already late starts from the window it is in now, which fires at once if
+        // its time has passed; the notification ledger keeps it from being sent twice
+        LocalDate overdueDay = due.plusDays(1);
+        if (overdueDay.isBefore(today)) {
+            long late = today.toEpochDay() - overdueDay.toEpochDay();
+            overdueDay = overdueDay.plusDays(late / OVERDUE_REPEAT_DAYS * OVERDUE_REPEAT_DAYS);
+        }
+        QUEUE.add(new Event(overdueDay, loanId, due, true));
+    }
+    
+    private static void fireDueEvents() {
+        wakeUp = null;
+        long now = System.currentTimeMillis();
+        while (!QUEUE.isEmpty() && QUEUE.peek().fireAt <= now) {
+            Event event = QUEUE.poll();
+            try {
+                fire(event);
+            } catch (RuntimeException e) {
+                System.err.println("Error sending notification for loan " + event.loanId + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        rearm();
+    }
+    
+    private static void fire(Event event) {
+        // Queued only if the loan is still out and still due on the same date, and
+        // not already queued for this period by sendOverdueNotifications/sendDueReminders
+        NoticeType type = event.overdue ? NoticeType.OVERDUE : NoticeType.DUE_REMINDER;
+        boolean stillOut = NOTIFICATIONS.queueNotice(event.loanId, event.dueDate, type, event.day);
+        
+        if (stillOut && event.overdue) {
+            QUEUE.add(new Event(event.day.plusDays(OVERDUE_REPEAT_DAYS), event.loanId, event.dueDate, true));
+        }
+    }
+    
+    /**
+     * Points the wake-up timer at the earliest queued event.
+     */
+    private static void rearm() {
+        if (QUEUE.isEmpty()) {
+            return;
+        }
+        long next = QUEUE.peek().fireAt;
+        if (wakeUp != null && !wakeUp.isDone()) {
+            if (wakeUpAt <= next) {
+                return;
+            }
+            wakeUp.cancel(false);
+        }
+        
+        synchronized (DueDateScheduler.class) {
+            if (executor == null) {
+                return;
+            }
+            long delay = Math.max(0, next - System.currentTimeMillis());
+            wakeUp = executor.schedule(DueDateScheduler::fireDueEvents, delay, TimeUnit.MILLISECONDS);
+            wakeUpAt = next;
+        }
+    }
+    
+    private static final class Event implements Comparable<Event> {
+        private final LocalDate day;
+        private final long fireAt;
+        private final int loanId;
+        private final LocalDate dueDate;
+        private final boolean overdue;
+        
+        Event(LocalDate day, int loanId, LocalDate dueDate, boolean overdue) {
+            this.day = day;
+            this.fireAt = day.atTime(SEND_AT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            this.loanId = loanId;
+            this.dueDate = dueDate;
+            this.overdue = overdue;
+        }
+        
+        @Override
+        public int compareTo(Event other) {
+            return Long.compare(fireAt, other.fireAt);
+        }
+    }
+}
+
+// NoticeType.java - Kinds of notification sent to members
+package service;
+
+public enum NoticeType {
+    DUE_REMINDER,
+    OVERDUE
+}
+
+// Notification.java - A rendered message ready for a NotificationTransport
+package service;
+
+public class Notification {
+    private final long id;
+    private final String recipient;
+    private final String subject;
+    private final String body;
+
+    public Notification(long id, String recipient, String subject, String body) {
+        this.id = id;
+        this.recipient = recipient;
+        this.subject = subject;
+        this.body = body;
+    }
+
+    /** Outbox id; the same id is seen again if a send is retried. */
+    public long getId() { return id; }
+
+    public String getRecipient() { return recipient; }
+
+    public String getSubject() { return subject; }
+
+    public String getBody() { return body; }
+}
+
+// NotificationTransport.java - Delivers rendered notifications
+package service;
+
+import java.io.IOException;
+
+/**
+ * Delivers one notification. Throwing marks the message for a retry with backoff;
+ * implementations are called from several dispatcher workers at once.
+ */
+public interface NotificationTransport {
+    void send(Notification notification) throws IOException;
+}
+
+// ConsoleTransport.java - Prints notifications to standard output
+package service;
+
+public class ConsoleTransport implements NotificationTransport {
+    @Override
+    public void send(Notification notification) {
+        // In a real system, this would send an email or SMS
+        synchronized (System.out) {
+            System.out.println("Sending " + notification.getSubject().toLowerCase() + " to: " + notification.getRecipient());
+            System.out.println(notification.getBody());
+        }
+    }
+}
+
+// FileTransport.java - Appends notifications to a local mailbox file
+package service;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Stand-in for a mail server: appends each message, with its headers, to a
+ * single file so that a notification run can be inspected or diffed.
+ */
+public class FileTransport implements NotificationTransport, Closeable {
+    private final BufferedWriter out;
+
+    public FileTransport(Path file) throws IOException {
+        this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public synchronized void send(Notification notification) throws IOException {
+        out.write("Message-Id: " + notification.getId() + "\n");
+        out.write("Date: " + ZonedDateTime.now().format(DateTimeFormatter.RFC_1123_DATE_TIME) + "\n");
+        out.write("To: " + notification.getRecipient() + "\n");
+        out.write("Subject: " + notification.getSubject() + "\n\n");
+        out.write(notification.getBody());
+        out.write("\n.\n\n");
+        // The message only counts as sent once it is on disk
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
+
+// FailedNotification.java - An outbox message that ran out of attempts
+package service;
+
+public class FailedNotification {
+    private final long id;
+    private final NoticeType type;
+    private final int loanId;
+    private final String recipient;
+    private final int attempts;
+    private final String lastError;
+    private final long createdAt;
+
+    public FailedNotification(long id, NoticeType type, int loanId, String recipient, int attempts,
+                              String lastError, long createdAt) {
+        this.id = id;
+        this.type = type;
+        this.loanId = loanId;
+        this.recipient = recipient;
+        this.attempts = attempts;
+        this.lastError = lastError;
+        this.createdAt = createdAt;
+    }
+
+    public long getId() { return id; }
+
+    public NoticeType getType() { return type; }
+
+    public int getLoanId() { return loanId; }
+
+    public String getRecipient() { return recipient; }
+
+    public int getAttempts() { return attempts; }
+
+    public String getLastError() { return lastError; }
+
+    /** Epoch milliseconds when the message was queued. */
+    public long getCreatedAt() { return createdAt; }
+
+    @Override
+    public String toString() {
+        return "FailedNotification{id=" + id + ", type=" + type + ", loanId=" + loanId + ", recipient='" + recipient +
+               "', attempts=" + attempts + ", lastError='" + lastError + "'}";
+    }
+}
+
+// NotificationDispatcher.java - Drains the notification outbox in the background
+package service;
+
+import util.DBConnection;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the messages NotificationService writes to notification_outbox.
+ * 
+ * One loop thread claims up to library.notifications.batchSize due messages in a
+ * single write, hands them to a fixed pool of library.notifications.workers
+ * senders, and records every outcome of the batch in a single write. Sends are
+ * spaced to library.notifications.ratePerSecond. A failed send is retried with
+ * exponential backoff and marked failed after library.notifications.maxAttempts.
+ * 
+ * Claims carry a per-process token and a lease. If the application exits
+ * mid-batch, the claimed messages return to pending once the lease
+ * (library.notifications.leaseMs) runs out, so nothing is lost; a message
+ * whose send completed but was not yet recorded may be sent twice.
+ * 
+ * Sent and failed messages are deleted library.notifications.retentionDays
+ * (default 30) after they were queued; until then getFailed() lists the failures
+ * and retryFailed() puts them back in the queue.
+ */
+public class NotificationDispatcher {
+    private static final int BATCH_SIZE = Integer.getInteger("library.notifications.batchSize", 50);
+    private static final int WORKERS = Integer.getInteger("library.notifications.workers", 4);
+    private static final int RATE_PER_SECOND = Integer.getInteger("library.notifications.ratePerSecond", 20);
+    private static final int MAX_ATTEMPTS = Integer.getInteger("library.notifications.maxAttempts", 8);
+    private static final long BASE_BACKOFF_MS = Long.getLong("library.notifications.backoffMs", 30_000L);
+    private static final long MAX_BACKOFF_MS = 6 * 60 * 60 * 1_000L;
+    private static final long LEASE_MS = Long.getLong("library.notifications.leaseMs", 5 * 60 * 1_000L);
+    private static final long POLL_MS = Long.getLong("library.notifications.pollMs", 5_000L);
+    private static final long RETENTION_MS = TimeUnit.DAYS.toMillis(Long.getLong("library.notifications.retentionDays", 30L));
+    private static final String CLAIM_TOKEN = UUID.randomUUID().toString();
+    
+    private static final Semaphore WAKE = new Semaphore(0);
+    
+    private static volatile NotificationTransport transport;
+    private static volatile boolean running;
+    private static Thread loop;
+    private static ExecutorService workers;
+    private static long nextSendAt;
+    private static long lastLeaseCheck;
+    
+    private NotificationDispatcher() {
+    }
+    
+    /**
+     * Replaces the transport, e.g. with a FileTransport for a test run. By default
+     * library.notifications.transport picks console (default) or file, the latter
+     * writing to library.notifications.file.
+     */
+    public static void setTransport(NotificationTransport notificationTransport) {
+        transport = notificationTransport;
+    }
+    
+    public static synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (transport == null) {
+            transport = defaultTransport();
+        }
+        running = true;
+        workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(BATCH_SIZE), r -> {
+                    Thread t = new Thread(r, "notification-sender");
+                    t.setDaemon(true);
+                    return t;
+                });
+        loop = new Thread(NotificationDispatcher::run, "notification-dispatcher");
+        loop.setDaemon(true);
+        loop.start();
+    }
+    
+    /**
+     * Stops after the batch in progress; unsent messages stay in the outbox.
+     */
+    public static synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        WAKE.release();
+        try {
+            loop.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+    }
+    
+    /**
+     * Tells the dispatcher new messages are waiting, instead of letting it find them at its next poll.
+     */
+    public static void wake() {
+        WAKE.release();
+    }
+    
+    private static NotificationTransport defaultTransport() {
+        if ("file".equals(System.getProperty("library.notifications.transport"))) {
+            try {
+                return new FileTransport(Paths.get(System.getProperty("library.notifications.file", "notifications.txt")));
+            } catch (IOException e) {
+                System.err.println("Error opening notification file, printing instead: " + e.getMessage());
+            }
+        }
+        return new ConsoleTransport();
+    }
+    
+    private static void run() {
+        while (running) {
+            try {
+                releaseExpiredClaims();
+                List<OutboxMessage> batch = claimBatch();
+                if (batch.isEmpty()) {
+                    WAKE.tryAcquire(POLL_MS, TimeUnit.MILLISECONDS);
+                    WAKE.drainPermits();
+                    continue;
+                }
+                recordOutcomes(deliver(batch));
+            } catch (InterruptedException e) {
+                return;
+            } catch (SQLException e) {
+                System.err.println("Error dispatching notifications: " + e.getMessage());
+                try {
+                    Thread.sleep(POLL_MS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * The failed messages, most recent first.
+     */
+    public static List<FailedNotification> getFailed(int limit) {
+        List<FailedNotification> failed = new ArrayList<>();
+        String sql = "SELECT id, notice_type, loan_id, recipient, attempts, last_error, created_at " +
+                    "FROM notification_outbox WHERE status = 'failed' ORDER BY id DESC LIMIT ?";
+        
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setInt(1, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    failed.add(new FailedNotification(rs.getLong("id"), NoticeType.valueOf(rs.getString("notice_type")),
+                            rs.getInt("loan_id"), rs.getString("recipient"), rs.getInt("attempts"),
+                            rs.getString("last_error"), rs.getLong("created_at")));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error retrieving failed notifications: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return failed;
+    }
+    
+    /**
+     * Puts every failed message back in the queue with a fresh set of attempts.
+     * 
+     * @return the number of messages re-queued
+     */
+    public static int retryFailed() {
+        String sql = "UPDATE notification_outbox SET status = 'pending', attempts = 0, next_attempt_at = ? " +
+                    "WHERE status = 'failed'";
+        
+        try {
+            int retried = DBConnection.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setLong(1, System.currentTimeMillis());
+                    return pstmt.executeUpdate();
+                }
+            });
+            if (retried > 0) {
+                wake();
+            }
+            return retried;
+        } catch (SQLException e) {
+            System.err.println("Error retrying failed notifications: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return 0;
+    }
+    
+    /**
+     * Returns messages whose claim outlived its lease to pending, e.g. after a crash,
+     * and deletes finished messages past the retention period.
+     */
+    private static void releaseExpiredClaims() throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now - lastLeaseCheck < LEASE_MS / 2) {
+            return;
+        }
+        lastLeaseCheck = now;
+        
+        String releaseSql = "UPDATE notification_outbox SET status = 'pending', claim_token = NULL " +
+                           "WHERE status = 'sending' AND claimed_at < ?";
+        String purgeSql = "DELETE FROM notification_outbox WHERE status IN ('sent', 'failed') AND created_at < ?";
+        DBConnection.write(conn -> {
+            try (PreparedStatement release = conn.prepareStatement(releaseSql);
+                 PreparedStatement purge = conn.prepareStatement(purgeSql)) {
+                release.setLong(1, now - LEASE_MS);
+                release.executeUpdate();
+                purge.setLong(1, now - RETENTION_MS);
+                return purge.executeUpdate();
+            }
+        });
+    }
+    
+    private static List<OutboxMessage> claimBatch() throws SQLException {
+        String claimSql = "UPDATE notification_outbox SET status = 'sending', claim_token = ?, claimed_at = ? " +
+                         "WHERE id IN (SELECT id FROM notification_outbox " +
+                         "WHERE status = 'pending' AND next_attempt_at <= ? ORDER BY next_attempt_at LIMIT ?)";
+        String selectSql = "SELECT * FROM notification_outbox WHERE status = 'sending' AND claim_token = ? AND claimed_at = ?";
+        long now = System.currentTimeMillis();
+        
+        return DBConnection.write(conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(claimSql)) {
+                pstmt.setString(1, CLAIM_TOKEN);
+                pstmt.setLong(2, now);
+                pstmt.setLong(3, now);
+                pstmt.setInt(4, BATCH_SIZE);
+                if (pstmt.executeUpdate() == 0) {
+                    return new ArrayList<>();
+                }
+            }
+            
+            List<OutboxMessage> batch = new ArrayList<>();
+            try (PreparedStatement pstmt = conn.prepareStatement(selectSql)) {
+                pstmt.setString(1, CLAIM_TOKEN);
+                pstmt.setLong(2, now);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        batch.add(new OutboxMessage(rs));
+                    }
+                }
+            }
+            return batch;
+        });
+    }
+    
+    private static List<OutboxMessage> deliver(List<OutboxMessage> batch) throws InterruptedException {
+        NotificationTransport sender = transport;
+        List<Callable<Void>> sends = new ArrayList<>(batch.size());
+        for (OutboxMessage message : batch) {
+            sends.add(() -> {
+                awaitRateLimit();
+                sender.send(message.toNotification());
+                return null;
+            });
+        }
+        
+        List<Future<Void>> results = workers.invokeAll(sends);
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                results.get(i).get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                batch.get(i).error = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+            }
+        }
+        return batch;
+    }
+    
+    /**
+     * Blocks until the next send slot; slots are 1 / ratePerSecond apart across all workers.
+     */
+    private static void awaitRateLimit() throws InterruptedException {
+        long slot;
+        synchronized (NotificationDispatcher.class) {
+            long now = System.currentTimeMillis();
+            slot = Math.max(now, nextSendAt);
+            nextSendAt = slot + 1_000L / Math.max(1, RATE_PER_SECOND);
+        }
+        long wait = slot - System.currentTimeMillis();
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+    
+    private static void recordOutcomes(List<OutboxMessage> batch) throws SQLException {
+        String sentSql = "UPDATE notification_outbox SET status = 'sent', sent_at = ?, attempts = attempts + 1, " +
+                        "claim_token = NULL WHERE id = ? AND claim_token = ?";
+        String retrySql = "UPDATE notification_outbox SET status = ?, attempts = attempts + 1, next_attempt_at = ?, " +
+                         "last_error = ?, claim_token = NULL WHERE id = ? AND claim_token = ?";
+        long now = System.currentTimeMillis();
+        
+        DBConnection.write(conn -> {
+            try (PreparedStatement sent = conn.prepareStatement(sentSql);
+                 PreparedStatement retry = conn.prepareStatement(retrySql)) {
+                for (OutboxMessage message : batch) {
+                    if (message.error == null) {
+                        sent.setLong(1, now);
+                        sent.setLong(2, message.id);
+                        sent.setString(3, CLAIM_TOKEN);
+                        sent.addBatch();
+                    } else {
+                        int attempts = message.attempts + 1;
+                        retry.setString(1, attempts >= MAX_ATTEMPTS ? "failed" : "pending");
+                        retry.setLong(2, now + backoff(attempts));
+                        retry.setString(3, message.error);
+                        retry.setLong(4, message.id);
+                        retry.setString(5, CLAIM_TOKEN);
+                        retry.addBatch();
+                    }
+                }
+                sent.executeBatch();
+                retry.executeBatch();
+            }
+            return null;
+        });
+    }
+    
+    /**
+     * Exponential backoff with jitter, so messages that failed together do not retry together.
+     */
+    private static long backoff(int attempts) {
+        long delay = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempts - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+    
+    private static final class OutboxMessage {
+        private final long id;
+        private final int attempts;
+        private final NoticeType type;
+        private final String recipient;
+        private final String memberName;
+        private final String bookTitle;
+        private final String bookAuthor;
+        private final LocalDate dueDate;
+        private String error;
+        
+        OutboxMessage(ResultSet rs) throws SQLException {
+            id = rs.getLong("id");
+            attempts = rs.getInt("attempts");
+            type = NoticeType.valueOf(rs.getString("notice_type"));
+            recipient = rs.getString("recipient");
+            memberName = rs.getString("member_name");
+            bookTitle = rs.getString("book_title");
+            bookAuthor = rs.getString("book_author");
+            Date due = rs.getDate("due_date");
+            dueDate = due == null ? null : due.toLocalDate();
+        }
+        
+        Notification toNotification() {
+            return NotificationService.compose(id, type, recipient, memberName, bookTitle, bookAuthor, dueDate);
+        }
+    }
+}
+
+// MessageTemplate.java - A message template compiled into literal and variable segments
+package service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A template such as "Dear ${member}," parsed once into alternating literal text
+ * and variable slots, so rendering is a run of appends with no pattern parsing.
+ * Variables are resolved to argument positions when the template is compiled;
+ * "$$" writes a literal '$'. Instances are immutable and safe to share.
+ */
+public class MessageTemplate {
+    private final String name;
+    private final String[] literals;
+    private final int[] slots;
+
+    private MessageTemplate(String name, String[] literals, int[] slots) {
+        this.name = name;
+        this.literals = literals;
+        this.slots = slots;
+    }
+
+    /**
+     * Compiles text against the given variable names; values are later passed to
+     * render() in the same order.
+     * 
+     * @throws IllegalArgumentException if the text uses a variable not in the list
+     *         or leaves a "${" unclosed
+     */
+    public static MessageTemplate compile(String name, String text, String... variables) {
+        List<String> names = Arrays.asList(variables);
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c != '$' || i + 1 == text.length()) {
+                literal.append(c);
+                i++;
+            } else if (text.charAt(i + 1) == '$') {
+                literal.append('$');
+                i += 2;
+            } else if (text.charAt(i + 1) == '{') {
+                int end = text.indexOf('}', i + 2);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed ${ in template " + name + " at offset " + i);
+                }
+                String variable = text.substring(i + 2, end).trim();
+                int slot = names.indexOf(variable);
+                if (slot < 0) {
+                    throw new IllegalArgumentException("Unknown variable ${" + variable + "} in template " + name
+                            + "; expected one of " + names);
+                }
+                literals.add(literal.toString());
+                slots.add(slot);
+                literal.setLength(0);
+                i = end + 1;
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+        literals.add(literal.toString());
+        
+        int[] slotArray = new int[slots.size()];
+        for (int j = 0; j < slotArray.length; j++) {
+            slotArray[j] = slots.get(j);
+        }
+        return new MessageTemplate(name, literals.toArray(new String[0]), slotArray);
+    }
+
+    /**
+     * Appends the rendered message to out; values are in the order the variables
+     * were given to compile(). Nulls render as empty text.
+     */
+    public StringBuilder render(StringBuilder out, Object... values) {
+        for (int i = 0; i < slots.length; i++) {
+            out.append(literals[i]);
+            Object value = values[slots[i]];
+            if (value instanceof Long) {
+                out.append(((Long) value).longValue());
+            } else if (value != null) {
+                out.append(value);
+            }
+        }
+        return out.append(literals[slots.length]);
+    }
+
+    public String getName() { return name; }
+}
+
+// TemplateEngine.java - Loads and caches message templates with branch and language variants
+package service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out compiled MessageTemplates by name. Each name is registered with its
+ * variables and a built-in text; staff can override the text with files in the
+ * template directory, most specific first:
+ * <pre>
+ * name.branch.language.txt
+ * name.branch.txt
+ * name.language.txt
+ * name.txt
+ * </pre>
+ * A template is read and compiled the first time it is asked for and kept until
+ * reload(). A file that cannot be read or compiled is reported and skipped, so a
+ * bad edit falls back to the next variant rather than stopping notifications.
+ */
+public class TemplateEngine {
+    private final Path directory;
+    private final String branch;
+    private final String language;
+    private final Map<String, Definition> definitions = new ConcurrentHashMap<>();
+    private final Map<String, MessageTemplate> compiled = new ConcurrentHashMap<>();
+
+    /**
+     * @param branch default branch variant, or null for none
+     * @param language default language variant, or null for none
+     */
+    public TemplateEngine(Path directory, String branch, String language) {
+        this.directory = directory;
+        this.branch = blankToNull(branch);
+        this.language = blankToNull(language);
+    }
+
+    public void register(String name, String builtInText, String... variables) {
+        definitions.put(name, new Definition(builtInText, variables));
+        compiled.keySet().removeIf(key -> key.startsWith(name + "|"));
+    }
+
+    /**
+     * The template for this engine's branch and language.
+     */
+    public MessageTemplate get(String name) {
+        return get(name, branch, language);
+    }
+
+    /**
+     * The most specific variant of a registered template for branch and language,
+     * either of which may be null.
+     * 
+     * @throws IllegalArgumentException if no template of that name is registered
+     */
+    public MessageTemplate get(String name, String branch, String language) {
+        String key = name + "|" + blankToNull(branch) + "|" + blankToNull(language);
+        MessageTemplate template = compiled.get(key);
+        if (template == null) {
+            template = load(name, blankToNull(branch), blankToNull(language));
+            compiled.put(key, template);
+        }
+        return template;
+    }
+
+    /**
+     * Drops every compiled template, so edited files are picked up on next use.
+     */
+    public void reload() {
+        compiled.clear();
+    }
+
+    private MessageTemplate load(String name, String branch, String language) {
+        Definition definition = definitions.get(name);
+        if (definition == null) {
+            throw new IllegalArgumentException("No template registered as " + name);
+        }
+        
+        if (directory != null) {
+            for (String fileName : candidates(name, branch, language)) {
+                Path file = directory.resolve(fileName);
+                if (!Files.isRegularFile(file)) {
+                    continue;
+                }
+                try {
+                    String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                    return MessageTemplate.compile(fileName, text, definition.variables);
+                } catch (IOException | IllegalArgumentException e) {
+                    System.err.println("Error loading template " + file + ", skipping it: " + e.getMessage());
+                }
+            }
+        }
+        return MessageTemplate.compile(name, definition.builtInText, definition.variables);
+    }
+
+    private static List<String> candidates(String name, String branch, String language) {
+        List<String> names = new ArrayList<>(4);
+        if (branch != null && language != null) {
+            names.add(name + "." + branch + "." + language + ".txt");
+        }
+        if (branch != null) {
+            names.add(name + "." + branch + ".txt");
+        }
+        if (language != null) {
+            names.add(name + "." + language + ".txt");
+        }
+        names.add(name + ".txt");
+        return names;
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    private static final class Definition {
+        private final String builtInText;
+        private final String[] variables;
+
+        Definition(String builtInText, String[] variables) {
+            this.builtInText = builtInText;
+            this.variables = variables;
+        }
     }
 }
 
-// ReportService.java - Generates various reports for the library
+// NotificationService.java - Handles notifications for overdue books and reminders
 package service;
 
+import model.Loan;
+import model.Member;
 import util.DBConnection;
+import util.ReportCache;
 
-import java.sql.*;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.LocalDate;
-import java.util.HashMap;
-import java.util.Map;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Locale;
 
-public class ReportService {
+public class NotificationService {
+    private static final String[] ALL_TABLES = {"books", "members", "loans"};
+    
+    static final int REMINDER_DAYS_BEFORE = Integer.getInteger("library.notifications.reminderDaysBefore", 2);
+    static final int OVERDUE_REPEAT_DAYS = Integer.getInteger("library.notifications.overdueRepeatDays", 7);
+    
+    // Ledger periods: one reminder per due date; one overdue notice per window of
+    // OVERDUE_REPEAT_DAYS days, counted from the first day overdue. Dates are stored
+    // as epoch milliseconds at local midnight, hence the rounding across DST changes.
+    private static final String REMINDER_PERIOD = "l.due_date";
+    private static final String OVERDUE_PERIOD = "(CAST(ROUND((? - l.due_date) / 86400000.0) AS INTEGER) - 1) / ?";
+    
+    // Notice templates, overridable per branch and language with files in
+    // library.templates.dir; see TemplateEngine. Sender threads render into their own buffer.
+    private static final String[] NOTICE_VARIABLES = {"member", "title", "author", "days", "due_date"};
+    private static final TemplateEngine TEMPLATES = new TemplateEngine(
+            Paths.get(System.getProperty("library.templates.dir", "templates")),
+            System.getProperty("library.branch"),
+            System.getProperty("library.language", Locale.getDefault().getLanguage()));
+    private static final ThreadLocal<StringBuilder> RENDER_BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(512));
+    
+    static {
+        TEMPLATES.register("overdue_notice",
+            "OVERDUE NOTICE\n" +
+            "Dear ${member},\n\n" +
+            "The book '${title}' by ${author} is ${days} days overdue.\n" +
+            "Please return it as soon as possible to avoid additional charges.\n\n" +
+            "Thank you,\nLibrary Management System",
+            NOTICE_VARIABLES);
+        TEMPLATES.register("due_reminder",
+            "DUE REMINDER\n" +
+            "Dear ${member},\n\n" +
+            "This is a friendly reminder that the book '${title}' by ${author} is due in ${days} days.\n" +
+            "Please return it by the due date to avoid overdue charges.\n\n" +
+            "Thank you,\nLibrary Management System",
+            NOTICE_VARIABLES);
+    }
 
-    public Map<String, Integer> getLibraryStatistics() {
-        Map<String, Integer> stats = new HashMap<>();
+    private LoanService loanService = new LoanService();
+
+    public void sendOverdueNotifications() {
+        queueOverdueNotices(LocalDate.now());
+    }
+
+    public void sendDueReminders() {
+        queueDueReminders(LocalDate.now());
+    }
+
+    /**
+     * Queues an overdue notice for every loan still out past its due date on asOf,
+     * at most one per loan per overdue window (see notification_ledger).
+     * All notices go into the outbox in one transaction; NotificationDispatcher sends them.
+     * 
+     * @return the number of notices queued
+     */
+    public int queueOverdueNotices(LocalDate asOf) {
+        return queue(NoticeType.OVERDUE, OVERDUE_PERIOD, "l.due_date < ?", asOf, OVERDUE_REPEAT_DAYS, asOf);
+    }
+
+    /**
+     * Queues a due reminder for every loan still out that falls due within
+     * library.notifications.reminderDaysBefore days of asOf and has not had one
+     * for that due date yet, so a missed day is caught up the next.
+     * 
+     * @return the number of reminders queued
+     */
+    public int queueDueReminders(LocalDate asOf) {
+        return queue(NoticeType.DUE_REMINDER, REMINDER_PERIOD, "l.due_date BETWEEN ? AND ?",
+                     asOf, asOf.plusDays(REMINDER_DAYS_BEFORE));
+    }
+
+    /**
+     * Queues one notice, for the overdue window asOf falls in, unless it was already queued.
+     * 
+     * @return true if the loan is still out with the given due date, whether or not
+     *         this call queued anything
+     */
+    public boolean queueNotice(int loanId, LocalDate dueDate, NoticeType type, LocalDate asOf) {
+        String stillOutSql = "SELECT 1 FROM loans WHERE id = ? AND return_date IS NULL AND due_date = ?";
         
-        try (Connection conn = DBConnection.getConnection()) {
-            // Total books
-            String bookSql = "SELECT COUNT(*) as total FROM books";
-            try (PreparedStatement pstmt = conn.prepareStatement(bookSql);
-                 ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    stats.put("totalBooks", rs.getInt("total"));
-                }
-            }
-            
-            // Available books
-            String availableSql = "SELECT COUNT(*) as available FROM books WHERE available = 1";
-            try (PreparedStatement pstmt = conn.prepareStatement(availableSql);
-                 ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    stats.put("availableBooks", rs.getInt("available"));
-                }
-            }
-            
-            // Total members
-            String memberSql = "SELECT COUNT(*) as total FROM members";
-            try (PreparedStatement pstmt = conn.prepareStatement(memberSql);
-                 ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    stats.put("totalMembers", rs.getInt("total"));
-                }
-            }
-            
-            // Active loans
-            String loansSql = "SELECT COUNT(*) as active FROM loans WHERE return_date IS NULL";
-            try (PreparedStatement pstmt = conn.prepareStatement(loansSql);
-                 ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    stats.put("activeLoans", rs.getInt("active"));
+        try {
+            return DBConnection.write(conn -> {
+                int queued = type == NoticeType.OVERDUE
+                        ? queue(conn, type, OVERDUE_PERIOD, "l.id = ? AND l.due_date = ?",
+                                asOf, OVERDUE_REPEAT_DAYS, loanId, dueDate)
+                        : queue(conn, type, REMINDER_PERIOD, "l.id = ? AND l.due_date = ?", loanId, dueDate);
+                if (queued > 0) {
+                    return true;
                 }
-            }
-            
-            // Overdue books (more than 14 days)
-            String overdueSql = "SELECT COUNT(*) as overdue FROM loans WHERE return_date IS NULL AND loan_date < ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(overdueSql)) {
-                pstmt.setDate(1, Date.valueOf(LocalDate.now().minusDays(14)));
-                ResultSet rs = pstmt.executeQuery();
-                if (rs.next()) {
-                    stats.put("overdueBooks", rs.getInt("overdue"));
+                
+                try (PreparedStatement pstmt = conn.prepareStatement(stillOutSql)) {
+                    pstmt.setInt(1, loanId);
+                    pstmt.setDate(2, Date.valueOf(dueDate));
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        return rs.next();
+                    }
                 }
-            }
-            
+            });
         } catch (SQLException e) {
+            System.err.println("Error queuing " + type + " notice for loan " + loanId + ": " + e.getMessage());
             e.printStackTrace();
         }
-        
-        return stats;
+        return false;
     }
 
-    public Map<String, Integer> getMostPopularBooks(int limit) {
-        Map<String, Integer> popularBooks = new HashMap<>();
-        String sql = "SELECT b.title, COUNT(l.id) as loan_count " +
-                    "FROM books b " +
-                    "LEFT JOIN loans l ON b.id = l.book_id " +
-                    "GROUP BY b.id, b.title " +
-                    "ORDER BY loan_count DESC " +
-                    "LIMIT ?";
-        
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setInt(1, limit);
-            ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                popularBooks.put(rs.getString("title"), rs.getInt("loan_count"));
-            }
+    private int queue(NoticeType type, String period, String filter, Object... params) {
+        try {
+            return DBConnection.write(conn -> queue(conn, type, period, filter, params));
         } catch (SQLException e) {
+            System.err.println("Error queuing " + type + " notifications: " + e.getMessage());
             e.printStackTrace();
         }
-        
-        return popularBooks;
+        return 0;
     }
 
-    public Map<String, Integer> getMostActiveMembers(int limit) {
-        Map<String, Integer> activeMembers = new HashMap<>();
-        String sql = "SELECT m.name, COUNT(l.id) as loan_count " +
-                    "FROM members m " +
-                    "LEFT JOIN loans l ON m.id = l.member_id " +
-                    "GROUP BY m.id, m.name " +
-                    "ORDER BY loan_count DESC " +
-                    "LIMIT ?";
+    /**
+     * Records matching open loans in notification_ledger, skipping those already
+     * there for the same notice type and period, then copies the newly recorded
+     * loans into notification_outbox. Both happen in the caller's write
+     * transaction, so a loan is queued exactly when its ledger row is written;
+     * the dispatcher is woken once that transaction commits.
+     * 
+     * @param period SQL expression for the ledger period of loan l
+     * @param params values for the placeholders of period, then of filter
+     */
+    private int queue(Connection conn, NoticeType type, String period, String filter,
+                      Object... params) throws SQLException {
+        String lastSql = "SELECT COALESCE(MAX(rowid), 0) FROM notification_ledger";
+        String ledgerSql = "INSERT INTO notification_ledger(loan_id, notice_type, period, created_at) " +
+                          "SELECT due.id, ?, due.period, ? FROM (" +
+                          "SELECT l.id, " + period + " AS period FROM loans l " +
+                          "WHERE l.return_date IS NULL AND " + filter + ") due " +
+                          "WHERE NOT EXISTS (SELECT 1 FROM notification_ledger n " +
+                          "WHERE n.loan_id = due.id AND n.notice_type = ? AND n.period = due.period)";
+        String outboxSql = "INSERT INTO notification_outbox(notice_type, loan_id, recipient, member_name, " +
+                          "book_title, book_author, due_date, created_at, next_attempt_at) " +
+                          "SELECT n.notice_type, l.id, m.email, m.name, b.title, b.author, l.due_date, ?, ? " +
+                          "FROM notification_ledger n " +
+                          "JOIN loans l ON n.loan_id = l.id " +
+                          "JOIN books b ON l.book_id = b.id " +
+                          "JOIN members m ON l.member_id = m.id " +
+                          "WHERE n.rowid > ?";
+        long now = System.currentTimeMillis();
         
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setInt(1, limit);
-            ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                activeMembers.put(rs.getString("name"), rs.getInt("loan_count"));
+        long lastRow;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(lastSql)) {
+            lastRow = rs.next() ? rs.getLong(1) : 0;
+        }
+        
+        try (PreparedStatement pstmt = conn.prepareStatement(ledgerSql)) {
+            int index = 1;
+            pstmt.setString(index++, type.name());
+            pstmt.setLong(index++, now);
+            for (Object param : params) {
+                if (param instanceof LocalDate) {
+                    pstmt.setDate(index++, Date.valueOf((LocalDate) param));
+                } else {
+                    pstmt.setInt(index++, (Integer) param);
+                }
+            }
+            pstmt.setString(index, type.name());
+            if (pstmt.executeUpdate() == 0) {
+                return 0;
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         
-        return activeMembers;
+        int queued;
+        try (PreparedStatement pstmt = conn.prepareStatement(outboxSql)) {
+            pstmt.setLong(1, now);
+            pstmt.setLong(2, now);
+            pstmt.setLong(3, lastRow);
+            queued = pstmt.executeUpdate();
+        }
+        if (queued > 0) {
+            DBConnection.afterCommit(NotificationDispatcher::wake);
+        }
+        return queued;
     }
 
-    public String generateMonthlyReport() {
-        StringBuilder report = new StringBuilder();
-        Map<String, Integer> stats = getLibraryStatistics();
-        
-        report.append("=== MONTHLY LIBRARY REPORT ===\n");
-        report.append("Generated on: ").append(LocalDate.now()).append("\n\n");
+    /**
+     * Renders a queued notice. Day counts are taken on the day it is sent.
+     */
+    static Notification compose(long id, NoticeType type, String recipient, String memberName,
+                                String bookTitle, String bookAuthor, LocalDate dueDate) {
+        boolean overdue = type == NoticeType.OVERDUE;
+        long days = overdue
+                ? ChronoUnit.DAYS.between(dueDate, LocalDate.now())
+                : ChronoUnit.DAYS.between(LocalDate.now(), dueDate);
         
-        report.append("LIBRARY STATISTICS:\n");
-        report.append("Total Books: ").append(stats.getOrDefault("totalBooks", 0)).append("\n");
-        report.append("Available Books: ").append(stats.getOrDefault("availableBooks", 0)).append("\n");
-        report.append("Total Members: ").append(stats.getOrDefault("totalMembers", 0)).append("\n");
-        report.append("Active Loans: ").append(stats.getOrDefault("activeLoans", 0)).append("\n");
-        report.append("Overdue Books: ").append(stats.getOrDefault("overdueBooks", 0)).append("\n\n");
-        
-        report.append("TOP 5 POPULAR BOOKS:\n");
-        Map<String, Integer> popularBooks = getMostPopularBooks(5);
-        int rank = 1;
-        for (Map.Entry<String, Integer> entry : popularBooks.entrySet()) {
-            report.append(rank++).append(". ").append(entry.getKey())
-                  .append(" (").append(entry.getValue()).append(" loans)\n");
+        StringBuilder body = RENDER_BUFFER.get();
+        body.setLength(0);
+        TEMPLATES.get(templateName(type)).render(body, memberName, bookTitle, bookAuthor, days, dueDate);
+        return new Notification(id, recipient, overdue ? "Overdue Notification" : "Due Reminder", body.toString());
+    }
+
+    /**
+     * Re-reads the notice templates, e.g. after staff edit them.
+     */
+    public static void reloadTemplates() {
+        TEMPLATES.reload();
+    }
+
+    private static String templateName(NoticeType type) {
+        return type == NoticeType.OVERDUE ? "overdue_notice" : "due_reminder";
+    }
+
+    public String generateOverdueReport() {
+        return ReportCache.get("overdueReport:" + LocalDate.now(), ALL_TABLES, this::buildOverdueReport);
+    }
+
+    private String buildOverdueReport() {
+        StringWriter report = new StringWriter();
+        try {
+            writeOverdueReport(report, ReportFormat.TEXT);
+        } catch (IOException | SQLException e) {
+            e.printStackTrace();
         }
+        return report.toString();
+    }
+
+    /**
+     * Streams the overdue report to out one loan at a time, then closes out.
+     */
+    public void writeOverdueReport(Writer out, ReportFormat format) throws IOException, SQLException {
+        LocalDate today = LocalDate.now();
         
-        report.append("\nTOP 5 ACTIVE MEMBERS:\n");
-        Map<String, Integer> activeMembers = getMostActiveMembers(5);
-        rank = 1;
-        for (Map.Entry<String, Integer> entry : activeMembers.entrySet()) {
-            report.append(rank++).append(". ").append(entry.getKey())
-                  .append(" (").append(entry.getValue()).append(" loans)\n");
+        try (ReportWriter report = new ReportWriter(out, format)) {
+            report.begin("OVERDUE BOOKS REPORT");
+            report.field("Generated on", today);
+            report.field("Total overdue books", loanService.countOverdueLoans(today));
+            report.section(null, "Book", "Member", "Email", "Days Overdue", "Loan Date", "Due Date");
+            
+            try {
+                loanService.streamOverdueLoans(today, loan -> {
+                    long daysOverdue = ChronoUnit.DAYS.between(loan.getDueDate(), today);
+                    try {
+                        report.row(loan.getBookTitle(), loan.getMemberName(), loan.getMemberEmail(),
+                                daysOverdue, loan.getLoanDate(), loan.getDueDate());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return true;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
         }
-        
-        return report.toString();
+    }
+
+    /**
+     * Writes the overdue report straight to a file.
+     * 
+     * @return true if the whole report was written
+     */
+    public boolean exportOverdueReport(Path file, ReportFormat format) {
+        try {
+            writeOverdueReport(Files.newBufferedWriter(file, StandardCharsets.UTF_8), format);
+            return true;
+        } catch (IOException | SQLException e) {
+            System.err.println("Error exporting overdue report: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
     }
 }
 
-// NotificationService.java - Handles notifications for overdue books and reminders
+// Session.java - A verified login, held in memory by AuthService
 package service;
 
-import model.Loan;
-import model.Member;
+public class Session {
+    private final String token;
+    private final int userId;
+    private final String username;
+    private final String role;
+    private final long expiresAt;
+    // Hash the session was verified against; a different stored hash means the password changed
+    final String passwordHash;
 
-import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
-import java.util.List;
+    Session(String token, int userId, String username, String role, long expiresAt, String passwordHash) {
+        this.token = token;
+        this.userId = userId;
+        this.username = username;
+        this.role = role;
+        this.expiresAt = expiresAt;
+        this.passwordHash = passwordHash;
+    }
 
-public class NotificationService {
-    private LoanService loanService = new LoanService();
+    public String getToken() { return token; }
 
-    public void sendOverdueNotifications() {
-        List<Loan> overdueLoans = loanService.getOverdueLoans(14);
-        
-        for (Loan loan : overdueLoans) {
-            sendOverdueNotification(loan);
-        }
+    public int getUserId() { return userId; }
+
+    public String getUsername() { return username; }
+
+    public String getRole() { return role; }
+
+    /** Epoch milliseconds after which AuthService no longer accepts the token. */
+    public long getExpiresAt() { return expiresAt; }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAt;
     }
 
-    public void sendDueReminders() {
-        List<Loan> activeLoans = loanService.getActiveLoans();
-        
-        for (Loan loan : activeLoans) {
-            long daysLoaned = ChronoUnit.DAYS.between(loan.getLoanDate(), LocalDate.now());
+    public boolean hasRole(String requiredRole) {
+        return role != null && role.equalsIgnoreCase(requiredRole);
+    }
+}
+
+// AuthStats.java - Point-in-time login counters and latencies
+package service;
+
+/**
+ * Login latency is measured from the call to AuthService.login to its result, so
+ * it includes time spent queued behind other logins; verify time is the BCrypt
+ * check alone.
+ */
+public class AuthStats {
+    private final long logins;
+    private final long failures;
+    private final long rehashes;
+    private final double meanLatencyMillis;
+    private final double p95LatencyMillis;
+    private final double maxLatencyMillis;
+    private final double meanVerifyMillis;
+    private final int activeSessions;
+
+    public AuthStats(long logins, long failures, long rehashes, double meanLatencyMillis,
+                     double p95LatencyMillis, double maxLatencyMillis, double meanVerifyMillis,
+                     int activeSessions) {
+        this.logins = logins;
+        this.failures = failures;
+        this.rehashes = rehashes;
+        this.meanLatencyMillis = meanLatencyMillis;
+        this.p95LatencyMillis = p95LatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.meanVerifyMillis = meanVerifyMillis;
+        this.activeSessions = activeSessions;
+    }
+
+    /** Login attempts, successful or not. */
+    public long getLogins() { return logins; }
+
+    public long getFailures() { return failures; }
+
+    /** Passwords re-hashed at the configured cost after a successful login. */
+    public long getRehashes() { return rehashes; }
+
+    public double getMeanLatencyMillis() { return meanLatencyMillis; }
+
+    /** Over the most recent logins only. */
+    public double getP95LatencyMillis() { return p95LatencyMillis; }
+
+    public double getMaxLatencyMillis() { return maxLatencyMillis; }
+
+    public double getMeanVerifyMillis() { return meanVerifyMillis; }
+
+    public int getActiveSessions() { return activeSessions; }
+
+    @Override
+    public String toString() {
+        return "AuthStats{logins=" + logins + ", failures=" + failures + ", rehashes=" + rehashes +
+               ", latencyMs(mean/p95/max)=" + String.format("%.1f/%.1f/%.1f", meanLatencyMillis, p95LatencyMillis, maxLatencyMillis) +
+               ", verifyMs=" + String.format("%.1f", meanVerifyMillis) + ", sessions=" + activeSessions + "}";
+    }
+}
+
+// AuthService.java - Verifies logins off the UI thread and keeps session tokens
+package service;
+
+import dao.UserDAO;
+import model.User;
+import org.mindrot.jbcrypt.BCrypt;
+import util.ChangeListener;
+import util.ChangeMonitor;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Password checks and sessions for the desks.
+ * 
+ * BCrypt is slow on purpose, so login() runs the check on a small pool of
+ * library.auth.workers threads and returns a future; the UI should complete the
+ * login from that future instead of waiting on the event dispatch thread:
+ * <pre>
+ * AuthService.login(username, password).thenAccept(session ->
+ *         SwingUtilities.invokeLater(() -> onLogin(session)));
+ * </pre>
+ * A successful login whose stored hash uses a cost other than
+ * library.auth.bcryptCost (default 10) is re-hashed at that cost, so raising
+ * the cost takes effect as staff log in.
+ * 
+ * Each login gets a random token valid for library.auth.sessionMinutes (default
+ * 480, one shift). Role checks during the shift read the session, not the users
+ * table. Sessions of a user whose role or password changes, from this desk or
+ * another, or who is deleted, are dropped.
+ */
+public class AuthService {
+    private static final int BCRYPT_COST = Integer.getInteger("library.auth.bcryptCost", 10);
+    private static final int WORKERS = Integer.getInteger("library.auth.workers",
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    private static final long SESSION_MS = TimeUnit.MINUTES.toMillis(Long.getLong("library.auth.sessionMinutes", 480L));
+    private static final int LATENCY_SAMPLES = 256;
+    
+    private static final UserDAO USER_DAO = new UserDAO();
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Map<String, Session> SESSIONS = new ConcurrentHashMap<>();
+    private static final ExecutorService POOL = createPool();
+    
+    // Checked against when the username is unknown, so a miss takes as long as a wrong password
+    private static volatile String dummyHash;
+    
+    private static final LongAdder LOGINS = new LongAdder();
+    private static final LongAdder FAILURES = new LongAdder();
+    private static final LongAdder REHASHES = new LongAdder();
+    private static final LongAdder LATENCY_NANOS = new LongAdder();
+    private static final LongAdder VERIFY_NANOS = new LongAdder();
+    private static final long[] RECENT_LATENCIES = new long[LATENCY_SAMPLES];
+    private static long recorded;
+    private static long maxLatencyNanos;
+    
+    static {
+        // ChangeMonitor also reports this process's own writes, such as a rehash at
+        // login, so sessions are re-checked against the row rather than dropped outright
+        ChangeMonitor.addListener("users", new ChangeListener() {
+            @Override
+            public void rowsChanged(Set<Integer> userIds) {
+                revalidate(userIds);
+            }
             
-            // Send reminder 2 days before due date (assuming 14 days loan period)
-            if (daysLoaned == 12) {
-                sendDueReminder(loan);
+            @Override
+            public void tableChanged() {
+                revalidate(null);
             }
+        });
+    }
+    
+    private AuthService() {
+    }
+    
+    private static ExecutorService createPool() {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "auth-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    /**
+     * Checks the password on the auth pool.
+     * 
+     * @return a future completing with the new session, or with null if the
+     *         username or password is wrong
+     */
+    public static CompletableFuture<Session> login(String username, String password) {
+        long started = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            Session session = authenticate(username, password);
+            recordLogin(System.nanoTime() - started, session != null);
+            return session;
+        }, POOL);
+    }
+    
+    /**
+     * Hashes a new password at the configured cost, on the calling thread.
+     */
+    public static String hashPassword(String password) {
+        return BCrypt.hashpw(password, BCrypt.gensalt(BCRYPT_COST));
+    }
+    
+    /**
+     * Same as hashPassword, on the auth pool; for registration screens.
+     */
+    public static CompletableFuture<String> hashPasswordAsync(String password) {
+        return CompletableFuture.supplyAsync(() -> hashPassword(password), POOL);
+    }
+    
+    /**
+     * The session for token, or null if it is unknown, expired or logged out.
+     */
+    public static Session getSession(String token) {
+        if (token == null) {
+            return null;
         }
+        Session session = SESSIONS.get(token);
+        if (session != null && session.isExpired()) {
+            SESSIONS.remove(token, session);
+            return null;
+        }
+        return session;
     }
-
-    private void sendOverdueNotification(Loan loan) {
-        long daysOverdue = ChronoUnit.DAYS.between(loan.getLoanDate().plusDays(14), LocalDate.now());
-        
-        String message = String.format(
-            "OVERDUE NOTICE\n" +
-            "Dear %s,\n\n" +
-            "The book '%s' by %s is %d days overdue.\n" +
-            "Please return it as soon as possible to avoid additional charges.\n\n" +
-            "Thank you,\nLibrary Management System",
-            loan.getMemberName(),
-            loan.getBookTitle(),
-            loan.getBookAuthor(),
-            daysOverdue
-        );
-        
-        // In a real system, this would send an email or SMS
-        System.out.println("Sending overdue notification to: " + loan.getMemberEmail());
-        System.out.println(message);
+    
+    public static boolean hasRole(String token, String role) {
+        Session session = getSession(token);
+        return session != null && session.hasRole(role);
     }
-
-    private void sendDueReminder(Loan loan) {
-        String message = String.format(
-            "DUE REMINDER\n" +
-            "Dear %s,\n\n" +
-            "This is a friendly reminder that the book '%s' by %s is due in 2 days.\n" +
-            "Please return it by the due date to avoid overdue charges.\n\n" +
-            "Thank you,\nLibrary Management System",
-            loan.getMemberName(),
-            loan.getBookTitle(),
-            loan.getBookAuthor()
-        );
+    
+    public static void logout(String token) {
+        if (token != null) {
+            SESSIONS.remove(token);
+        }
+    }
+    
+    public static synchronized AuthStats getStats() {
+        long logins = LOGINS.sum();
+        int samples = (int) Math.min(recorded, LATENCY_SAMPLES);
+        long[] recent = Arrays.copyOf(RECENT_LATENCIES, samples);
+        Arrays.sort(recent);
+        long p95 = samples == 0 ? 0 : recent[Math.min(samples - 1, (int) Math.ceil(samples * 0.95) - 1)];
         
-        // In a real system, this would send an email or SMS
-        System.out.println("Sending due reminder to: " + loan.getMemberEmail());
-        System.out.println(message);
+        SESSIONS.values().removeIf(Session::isExpired);
+        return new AuthStats(logins, FAILURES.sum(), REHASHES.sum(),
+                logins == 0 ? 0.0 : LATENCY_NANOS.sum() / 1e6 / logins,
+                p95 / 1e6, maxLatencyNanos / 1e6,
+                logins == 0 ? 0.0 : VERIFY_NANOS.sum() / 1e6 / logins,
+                SESSIONS.size());
     }
-
-    public String generateOverdueReport() {
-        List<Loan> overdueLoans = loanService.getOverdueLoans(14);
-        StringBuilder report = new StringBuilder();
+    
+    private static Session authenticate(String username, String password) {
+        if (username == null || password == null) {
+            return null;
+        }
+        User user = USER_DAO.getUserByUsername(username);
+        String hash = user != null ? user.getPassword() : dummyHash();
         
-        report.append("=== OVERDUE BOOKS REPORT ===\n");
-        report.append("Generated on: ").append(LocalDate.now()).append("\n");
-        report.append("Total overdue books: ").append(overdueLoans.size()).append("\n\n");
+        long started = System.nanoTime();
+        boolean valid = checkPassword(password, hash);
+        VERIFY_NANOS.add(System.nanoTime() - started);
+        if (user == null || !valid) {
+            return null;
+        }
         
-        for (Loan loan : overdueLoans) {
-            long daysOverdue = ChronoUnit.DAYS.between(loan.getLoanDate().plusDays(14), LocalDate.now());
-            report.append("Book: ").append(loan.getBookTitle()).append("\n");
-            report.append("Member: ").append(loan.getMemberName()).append("\n");
-            report.append("Email: ").append(loan.getMemberEmail()).append("\n");
-            report.append("Days Overdue: ").append(daysOverdue).append("\n");
-            report.append("Loan Date: ").append(loan.getLoanDate()).append("\n");
-            report.append("---\n");
+        if (costOf(hash) != BCRYPT_COST) {
+            hash = rehash(user, password, hash);
         }
         
-        return report.toString();
+        // Added only once the stored hash is final, so revalidate() sees it match
+        SESSIONS.values().removeIf(Session::isExpired);
+        Session session = new Session(newToken(), user.getId(), user.getUsername(), user.getRole(),
+                System.currentTimeMillis() + SESSION_MS, hash);
+        SESSIONS.put(session.getToken(), session);
+        return session;
+    }
+    
+    private static boolean checkPassword(String password, String hash) {
+        try {
+            return hash != null && BCrypt.checkpw(password, hash);
+        } catch (IllegalArgumentException e) {
+            // Not a BCrypt hash
+            System.err.println("Unreadable password hash: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * @return the hash now stored for the user
+     */
+    private static String rehash(User user, String password, String oldHash) {
+        // Best effort: the login has already succeeded with the old hash
+        String newHash = hashPassword(password);
+        if (USER_DAO.updatePassword(user.getUsername(), newHash)) {
+            REHASHES.increment();
+            return newHash;
+        }
+        return oldHash;
+    }
+    
+    /**
+     * Drops the sessions of the given users (all users when null) whose row was
+     * deleted or now has a different role or password hash.
+     */
+    private static void revalidate(Set<Integer> userIds) {
+        Map<Integer, User> current = new HashMap<>();
+        for (Session session : SESSIONS.values()) {
+            int userId = session.getUserId();
+            if (userIds != null && !userIds.contains(userId)) {
+                continue;
+            }
+            User user = current.computeIfAbsent(userId, USER_DAO::getUserById);
+            if (user == null
+                    || !Objects.equals(user.getRole(), session.getRole())
+                    || !Objects.equals(user.getPassword(), session.passwordHash)) {
+                SESSIONS.remove(session.getToken(), session);
+            }
+        }
+    }
+    
+    /**
+     * The cost field of a "$2a$10$..." hash, or -1 if there is none.
+     */
+    private static int costOf(String hash) {
+        if (hash == null || hash.length() < 7 || hash.charAt(0) != '$' || hash.charAt(3) != '$') {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(hash.substring(4, 6));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    private static String dummyHash() {
+        String hash = dummyHash;
+        if (hash == null) {
+            hash = hashPassword(newToken());
+            dummyHash = hash;
+        }
+        return hash;
+    }
+    
+    private static String newToken() {
+        byte[] bytes = new byte[32];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+    
+    private static synchronized void recordLogin(long latencyNanos, boolean succeeded) {
+        LOGINS.increment();
+        if (!succeeded) {
+            FAILURES.increment();
+        }
+        LATENCY_NANOS.add(latencyNanos);
+        RECENT_LATENCIES[(int) (recorded++ % LATENCY_SAMPLES)] = latencyNanos;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
     }
 }
 
@@ -454,7 +3427,11 @@ import dao.MemberDAO;
 import model.Book;
 import model.Member;
 import model.Loan;
+import model.Page;
+import model.PageCursor;
 
+import java.nio.file.Path;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
 
@@ -483,7 +3460,15 @@ public class LibraryService {
     }
 
     public List<Book> getAllBooks() {
-        return bookDAO.searchBooks(""); // Empty search returns all books
+        return bookDAO.getAllBooks();
+    }
+
+    public Page<Book> getBooksPage(PageCursor after, int pageSize) {
+        return bookDAO.getBooksPage(after, pageSize);
+    }
+
+    public Page<Book> searchBooksPage(String keyword, PageCursor after, int pageSize) {
+        return bookDAO.searchBooksPage(keyword, after, pageSize);
     }
 
     // Member operations
@@ -504,7 +3489,15 @@ public class LibraryService {
     }
 
     public List<Member> getAllMembers() {
-        return memberDAO.searchMembers(""); // Empty search returns all members
+        return memberDAO.getAllMembers();
+    }
+
+    public Page<Member> getMembersPage(PageCursor after, int pageSize) {
+        return memberDAO.getMembersPage(after, pageSize);
+    }
+
+    public Page<Member> searchMembersPage(String keyword, PageCursor after, int pageSize) {
+        return memberDAO.searchMembersPage(keyword, after, pageSize);
     }
 
     // Loan operations
@@ -512,6 +3505,18 @@ public class LibraryService {
         return loanService.lendBook(bookId, memberId);
     }
 
+    public LoanOutcome checkoutBook(int bookId, int memberId) {
+        return loanService.checkoutBook(bookId, memberId);
+    }
+
+    public Map<Integer, LoanOutcome> lendBooks(int memberId, List<Integer> bookIds) {
+        return loanService.lendBooks(memberId, bookIds);
+    }
+
+    public Map<Integer, LoanOutcome> returnBooks(List<Integer> bookIds) {
+        return loanService.returnBooks(bookIds);
+    }
+
     public boolean returnBook(int bookId, int memberId) {
         return loanService.returnBook(bookId, memberId);
     }
@@ -521,7 +3526,11 @@ public class LibraryService {
     }
 
     public List<Loan> getOverdueLoans() {
-        return loanService.getOverdueLoans(14);
+        return loanService.getOverdueLoans(LocalDate.now());
+    }
+
+    public List<Loan> getLoansDueWithin(int days) {
+        return loanService.getLoansDueWithin(days);
     }
 
     public List<Loan> getMemberLoanHistory(int memberId) {
@@ -541,6 +3550,14 @@ public class LibraryService {
         return notificationService.generateOverdueReport();
     }
 
+    public boolean exportMonthlyReport(Path file, ReportFormat format) {
+        return reportService.exportMonthlyReport(file, format);
+    }
+
+    public boolean exportOverdueReport(Path file, ReportFormat format) {
+        return notificationService.exportOverdueReport(file, format);
+    }
+
     // Notification operations
     public void sendOverdueNotifications() {
         notificationService.sendOverdueNotifications();
@@ -552,23 +3569,22 @@ public class LibraryService {
 
     // Utility methods
     public boolean isBookAvailable(int bookId) {
-        List<Book> books = bookDAO.searchBooks("");
-        return books.stream()
-                   .filter(book -> book.getId() == bookId)
-                   .findFirst()
-                   .map(Book::isAvailable)
-                   .orElse(false);
+        return bookDAO.isAvailable(bookId);
+    }
+
+    public int getAvailableBooksCount() {
+        return bookDAO.countAvailable();
     }
 
     public int getTotalBooksCount() {
-        return getLibraryStatistics().getOrDefault("totalBooks", 0);
+        return reportService.getCounter(LibraryCounters.TOTAL_BOOKS);
     }
 
     public int getTotalMembersCount() {
-        return getLibraryStatistics().getOrDefault("totalMembers", 0);
+        return reportService.getCounter(LibraryCounters.TOTAL_MEMBERS);
     }
 
     public int getActiveLoansCount() {
-        return getLibraryStatistics().getOrDefault("activeLoans", 0);
+        return reportService.getCounter(LibraryCounters.ACTIVE_LOANS);
     }
 }
\ No newline at end of file
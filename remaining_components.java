@@ -8,6 +8,7 @@ public class Loan {
     private int bookId;
     private int memberId;
     private LocalDate loanDate;
+    private LocalDate dueDate;
     private LocalDate returnDate;
     
     // Additional fields for joined data from reports
@@ -59,6 +60,14 @@ public class Loan {
         this.loanDate = loanDate;
     }
 
+    public LocalDate getDueDate() {
+        return dueDate;
+    }
+
+    public void setDueDate(LocalDate dueDate) {
+        this.dueDate = dueDate;
+    }
+
     public LocalDate getReturnDate() {
         return returnDate;
     }
@@ -108,6 +117,11 @@ public class Loan {
         return loanDate.plusDays(loanPeriodDays).isBefore(LocalDate.now());
     }
 
+    public boolean isOverdue() {
+        if (returnDate != null || dueDate == null) return false;
+        return dueDate.isBefore(LocalDate.now());
+    }
+
     @Override
     public String toString() {
         return "Loan{" +
@@ -115,6 +129,7 @@ public class Loan {
                 ", bookId=" + bookId +
                 ", memberId=" + memberId +
                 ", loanDate=" + loanDate +
+                ", dueDate=" + dueDate +
                 ", returnDate=" + returnDate +
                 ", bookTitle='" + bookTitle + '\'' +
                 ", memberName='" + memberName + '\'' +
@@ -205,6 +220,9 @@ public class Book {
     private String author;
     private String isbn;
     private boolean available;
+    private int loanPeriodDays = DEFAULT_LOAN_PERIOD_DAYS;
+
+    public static final int DEFAULT_LOAN_PERIOD_DAYS = 14;
 
     // Default constructor
     public Book() {
@@ -260,6 +278,17 @@ public class Book {
         this.available = available;
     }
 
+    /**
+     * Days a loan of this book runs before it is due.
+     */
+    public int getLoanPeriodDays() {
+        return loanPeriodDays;
+    }
+
+    public void setLoanPeriodDays(int loanPeriodDays) {
+        this.loanPeriodDays = loanPeriodDays;
+    }
+
     @Override
     public String toString() {
         return "Book{" +
@@ -268,6 +297,7 @@ public class Book {
                 ", author='" + author + '\'' +
                 ", isbn='" + isbn + '\'' +
                 ", available=" + available +
+                ", loanPeriodDays=" + loanPeriodDays +
                 '}';
     }
 
@@ -354,6 +384,9 @@ public class Member {
 package util;
 
 import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.SQLException;
 
@@ -366,6 +399,27 @@ public class DatabaseInitializer {
             // Create tables if they don't exist
             createTables(stmt);
             
+            // Add columns introduced since the database was created
+            addMissingColumns(conn, stmt);
+            
+            // Indexes backing ordered listings and open-loan queries
+            createIndexes(stmt);
+            
+            // Full-text index used by book search
+            createSearchIndex(stmt);
+            
+            // Change log that lets every desk see the others' writes
+            createChangeLog(stmt);
+            
+            // Trigger-maintained totals for the dashboard
+            createCounters(stmt);
+            
+            // Per-day loan summaries for date-range reports
+            createRollups(stmt);
+            
+            // Outbox drained by the notification dispatcher
+            createNotificationOutbox(stmt);
+            
             // Insert sample data
             insertSampleData(stmt);
             
@@ -395,7 +449,8 @@ public class DatabaseInitializer {
                 title TEXT NOT NULL,
                 author TEXT NOT NULL,
                 isbn TEXT NOT NULL UNIQUE,
-                available INTEGER DEFAULT 1
+                available INTEGER DEFAULT 1,
+                loan_period_days INTEGER NOT NULL DEFAULT 14
             )
         """);
 
@@ -415,6 +470,7 @@ public class DatabaseInitializer {
                 book_id INTEGER,
                 member_id INTEGER,
                 loan_date DATE,
+                due_date DATE,
                 return_date DATE,
                 FOREIGN KEY (book_id) REFERENCES books(id),
                 FOREIGN KEY (member_id) REFERENCES members(id)
@@ -422,6 +478,339 @@ public class DatabaseInitializer {
         """);
     }
 
+    private static void addMissingColumns(Connection conn, Statement stmt) throws SQLException {
+        if (!hasColumn(stmt, "books", "loan_period_days")) {
+            stmt.execute("ALTER TABLE books ADD COLUMN loan_period_days INTEGER NOT NULL DEFAULT 14");
+        }
+
+        if (!hasColumn(stmt, "loans", "due_date")) {
+            stmt.execute("ALTER TABLE loans ADD COLUMN due_date DATE");
+
+            // Loans made before due dates were recorded ran for the standard 14 days;
+            // legacy rows without a loan date are left without a due date
+            try (PreparedStatement select = conn.prepareStatement(
+                         "SELECT id, loan_date FROM loans WHERE loan_date IS NOT NULL");
+                 PreparedStatement update = conn.prepareStatement("UPDATE loans SET due_date = ? WHERE id = ?");
+                 ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    update.setDate(1, Date.valueOf(rs.getDate("loan_date").toLocalDate().plusDays(14)));
+                    update.setInt(2, rs.getInt("id"));
+                    update.addBatch();
+                }
+                update.executeBatch();
+            }
+        }
+    }
+
+    private static boolean hasColumn(Statement stmt, String table, String column) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void createIndexes(Statement stmt) throws SQLException {
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_books_title ON books(title)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_members_name ON members(name)");
+        // Open loans by due date, for overdue and due-soon queries (partial: returned loans are never scanned)
+        stmt.execute("DROP INDEX IF EXISTS idx_loans_open_loan_date");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_loans_open_due_date ON loans(due_date) WHERE return_date IS NULL");
+    }
+
+    private static void createSearchIndex(Statement stmt) throws SQLException {
+        boolean exists;
+        try (ResultSet rs = stmt.executeQuery(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'books_fts'")) {
+            exists = rs.next();
+        }
+
+        stmt.execute("""
+            CREATE VIRTUAL TABLE IF NOT EXISTS books_fts USING fts5(
+                title, author, isbn,
+                content='books', content_rowid='id',
+                tokenize='unicode61 remove_diacritics 2'
+            )
+        """);
+
+        // Keep books_fts in sync with books. Availability changes do not touch the index.
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS books_fts_ai AFTER INSERT ON books BEGIN
+                INSERT INTO books_fts(rowid, title, author, isbn) VALUES (new.id, new.title, new.author, new.isbn);
+            END
+        """);
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS books_fts_ad AFTER DELETE ON books BEGIN
+                INSERT INTO books_fts(books_fts, rowid, title, author, isbn) VALUES ('delete', old.id, old.title, old.author, old.isbn);
+            END
+        """);
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS books_fts_au AFTER UPDATE OF title, author, isbn ON books BEGIN
+                INSERT INTO books_fts(books_fts, rowid, title, author, isbn) VALUES ('delete', old.id, old.title, old.author, old.isbn);
+                INSERT INTO books_fts(rowid, title, author, isbn) VALUES (new.id, new.title, new.author, new.isbn);
+            END
+        """);
+
+        // Index books that were added before the index existed
+        if (!exists) {
+            stmt.execute("INSERT INTO books_fts(books_fts) VALUES ('rebuild')");
+        }
+    }
+
+    private static void createChangeLog(Statement stmt) throws SQLException {
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS change_log (
+                seq INTEGER PRIMARY KEY AUTOINCREMENT,
+                table_name TEXT NOT NULL,
+                row_id INTEGER NOT NULL
+            )
+        """);
+
+        // One trigger per table and operation, each appending (table, id) to change_log
+        String[] tables = {"books", "members", "users", "loans"};
+        for (String table : tables) {
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS " + table + "_changes_ai AFTER INSERT ON " + table +
+                    " BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('" + table + "', new.id); END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS " + table + "_changes_au AFTER UPDATE ON " + table +
+                    " BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('" + table + "', new.id); END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS " + table + "_changes_ad AFTER DELETE ON " + table +
+                    " BEGIN INSERT INTO change_log(table_name, row_id) VALUES ('" + table + "', old.id); END");
+        }
+    }
+
+    private static void createCounters(Statement stmt) throws SQLException {
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS library_counters (
+                name TEXT PRIMARY KEY,
+                value INTEGER NOT NULL DEFAULT 0
+            )
+        """);
+
+        // Seed from the real tables the first time; afterwards the triggers keep them current
+        stmt.execute("""
+            INSERT OR IGNORE INTO library_counters (name, value)
+            SELECT 'totalBooks', COUNT(*) FROM books
+            UNION ALL SELECT 'availableBooks', COUNT(*) FROM books WHERE available = 1
+            UNION ALL SELECT 'totalMembers', COUNT(*) FROM members
+            UNION ALL SELECT 'activeLoans', COUNT(*) FROM loans WHERE return_date IS NULL
+        """);
+
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS books_counters_ai AFTER INSERT ON books BEGIN
+                UPDATE library_counters SET value = value + 1 WHERE name = 'totalBooks';
+                UPDATE library_counters SET value = value + 1 WHERE name = 'availableBooks' AND new.available = 1;
+            END
+        """);
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS books_counters_ad AFTER DELETE ON books BEGIN
+                UPDATE library_counters SET value = value - 1 WHERE name = 'totalBooks';
+                UPDATE library_counters SET value = value - 1 WHERE name = 'availableBooks' AND old.available = 1;
+            END
+        """);
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS books_counters_au AFTER UPDATE OF available ON books
+            WHEN (old.available = 1) IS NOT (new.available = 1) BEGIN
+                UPDATE library_counters SET value = value + (CASE WHEN new.available = 1 THEN 1 ELSE -1 END)
+                WHERE name = 'availableBooks';
+            END
+        """);
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS members_counters_ai AFTER INSERT ON members BEGIN
+                UPDATE library_counters SET value = value + 1 WHERE name = 'totalMembers';
+            END
+        """);
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS members_counters_ad AFTER DELETE ON members BEGIN
+                UPDATE library_counters SET value = value - 1 WHERE name = 'totalMembers';
+            END
+        """);
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS loans_counters_ai AFTER INSERT ON loans WHEN new.return_date IS NULL BEGIN
+                UPDATE library_counters SET value = value + 1 WHERE name = 'activeLoans';
+            END
+        """);
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS loans_counters_ad AFTER DELETE ON loans WHEN old.return_date IS NULL BEGIN
+                UPDATE library_counters SET value = value - 1 WHERE name = 'activeLoans';
+            END
+        """);
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS loans_counters_au AFTER UPDATE OF return_date ON loans
+            WHEN (old.return_date IS NULL) IS NOT (new.return_date IS NULL) BEGIN
+                UPDATE library_counters SET value = value + (CASE WHEN new.return_date IS NULL THEN 1 ELSE -1 END)
+                WHERE name = 'activeLoans';
+            END
+        """);
+    }
+
+    private static void createRollups(Statement stmt) throws SQLException {
+        // Build the tables, triggers and backfill together, so a failed backfill does not
+        // leave empty tables behind that the next start takes for finished rollups
+        Connection conn = stmt.getConnection();
+        conn.setAutoCommit(false);
+        try {
+            createRollupsInTransaction(stmt);
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static void createRollupsInTransaction(Statement stmt) throws SQLException {
+        boolean exists;
+        try (ResultSet rs = stmt.executeQuery(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'loan_daily_stats'")) {
+            exists = rs.next();
+        }
+
+        // day holds the same value as loans.loan_date / return_date (the date as bound by setDate)
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS loan_daily_stats (
+                day INTEGER PRIMARY KEY,
+                checkouts INTEGER NOT NULL DEFAULT 0,
+                returns INTEGER NOT NULL DEFAULT 0,
+                late_returns INTEGER NOT NULL DEFAULT 0
+            )
+        """);
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS loan_daily_books (
+                day INTEGER NOT NULL,
+                book_id INTEGER NOT NULL,
+                checkouts INTEGER NOT NULL DEFAULT 0,
+                PRIMARY KEY (day, book_id)
+            )
+        """);
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS loan_daily_members (
+                day INTEGER NOT NULL,
+                member_id INTEGER NOT NULL,
+                checkouts INTEGER NOT NULL DEFAULT 0,
+                PRIMARY KEY (day, member_id)
+            )
+        """);
+
+        // Roll each checkout and return into its day inside the writing transaction, and
+        // take it back out when the loan is deleted or its return is cleared or moved.
+        // A return is late if it comes after the due date. Triggers are recreated on every
+        // start so that changes to these rules reach existing databases.
+        stmt.execute("DROP TRIGGER IF EXISTS loans_rollup_ai");
+        stmt.execute("DROP TRIGGER IF EXISTS loans_rollup_ad");
+        stmt.execute("DROP TRIGGER IF EXISTS loans_rollup_au");
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS loans_rollup_ai AFTER INSERT ON loans
+            WHEN new.loan_date IS NOT NULL BEGIN
+                INSERT INTO loan_daily_stats(day, checkouts) VALUES (new.loan_date, 1)
+                    ON CONFLICT(day) DO UPDATE SET checkouts = checkouts + 1;
+                INSERT INTO loan_daily_books(day, book_id, checkouts) VALUES (new.loan_date, new.book_id, 1)
+                    ON CONFLICT(day, book_id) DO UPDATE SET checkouts = checkouts + 1;
+                INSERT INTO loan_daily_members(day, member_id, checkouts) VALUES (new.loan_date, new.member_id, 1)
+                    ON CONFLICT(day, member_id) DO UPDATE SET checkouts = checkouts + 1;
+            END
+        """);
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS loans_rollup_ad AFTER DELETE ON loans BEGIN
+                UPDATE loan_daily_stats SET checkouts = checkouts - 1 WHERE day = old.loan_date;
+                UPDATE loan_daily_books SET checkouts = checkouts - 1 WHERE day = old.loan_date AND book_id = old.book_id;
+                UPDATE loan_daily_members SET checkouts = checkouts - 1 WHERE day = old.loan_date AND member_id = old.member_id;
+                UPDATE loan_daily_stats SET returns = returns - 1,
+                    late_returns = late_returns - COALESCE(old.return_date > old.due_date, 0)
+                WHERE day = old.return_date;
+            END
+        """);
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS loans_rollup_au AFTER UPDATE OF return_date ON loans
+            WHEN old.return_date IS NOT new.return_date BEGIN
+                UPDATE loan_daily_stats SET returns = returns - 1,
+                    late_returns = late_returns - COALESCE(old.return_date > old.due_date, 0)
+                WHERE day = old.return_date;
+                INSERT INTO loan_daily_stats(day, returns, late_returns)
+                    SELECT new.return_date, 1, COALESCE(new.return_date > new.due_date, 0) WHERE new.return_date IS NOT NULL
+                    ON CONFLICT(day) DO UPDATE SET returns = returns + 1, late_returns = late_returns + excluded.late_returns;
+            END
+        """);
+
+        // Summarise loans recorded before the rollups existed; legacy rows without a
+        // loan date have no day to be counted under
+        if (!exists) {
+            stmt.execute("""
+                INSERT INTO loan_daily_stats(day, checkouts, returns, late_returns)
+                SELECT day, SUM(checkouts), SUM(returns), SUM(late_returns) FROM (
+                    SELECT loan_date AS day, 1 AS checkouts, 0 AS returns, 0 AS late_returns FROM loans
+                    WHERE loan_date IS NOT NULL
+                    UNION ALL
+                    SELECT return_date, 0, 1, COALESCE(return_date > due_date, 0) FROM loans WHERE return_date IS NOT NULL
+                ) GROUP BY day
+            """);
+            stmt.execute("""
+                INSERT INTO loan_daily_books(day, book_id, checkouts)
+                SELECT loan_date, book_id, COUNT(*) FROM loans WHERE loan_date IS NOT NULL GROUP BY loan_date, book_id
+            """);
+            stmt.execute("""
+                INSERT INTO loan_daily_members(day, member_id, checkouts)
+                SELECT loan_date, member_id, COUNT(*) FROM loans WHERE loan_date IS NOT NULL GROUP BY loan_date, member_id
+            """);
+        }
+    }
+
+    private static void createNotificationOutbox(Statement stmt) throws SQLException {
+        // Timestamps are epoch milliseconds; the message text is rendered when it is sent
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS notification_outbox (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                notice_type TEXT NOT NULL,
+                loan_id INTEGER NOT NULL,
+                recipient TEXT NOT NULL,
+                member_name TEXT,
+                book_title TEXT,
+                book_author TEXT,
+                due_date DATE,
+                status TEXT NOT NULL DEFAULT 'pending' CHECK (status IN ('pending', 'sending', 'sent', 'failed')),
+                attempts INTEGER NOT NULL DEFAULT 0,
+                next_attempt_at INTEGER NOT NULL,
+                claim_token TEXT,
+                claimed_at INTEGER,
+                created_at INTEGER NOT NULL,
+                sent_at INTEGER,
+                last_error TEXT
+            )
+        """);
+        stmt.execute("""
+            CREATE INDEX IF NOT EXISTS idx_outbox_pending ON notification_outbox(next_attempt_at)
+            WHERE status = 'pending'
+        """);
+        stmt.execute("""
+            CREATE INDEX IF NOT EXISTS idx_outbox_sending ON notification_outbox(claimed_at)
+            WHERE status = 'sending'
+        """);
+        stmt.execute("""
+            CREATE INDEX IF NOT EXISTS idx_outbox_finished ON notification_outbox(created_at)
+            WHERE status IN ('sent', 'failed')
+        """);
+
+        // Notices already queued, keyed by loan, type and period; see NotificationService
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS notification_ledger (
+                loan_id INTEGER NOT NULL,
+                notice_type TEXT NOT NULL,
+                period INTEGER NOT NULL,
+                created_at INTEGER NOT NULL,
+                PRIMARY KEY (loan_id, notice_type, period)
+            )
+        """);
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS loans_ledger_au AFTER UPDATE OF return_date ON loans
+            WHEN new.return_date IS NOT NULL BEGIN
+                DELETE FROM notification_ledger WHERE loan_id = new.id;
+            END
+        """);
+    }
+
     private static void insertSampleData(Statement stmt) throws SQLException {
         // Insert admin user (password: admin123)
         stmt.execute("""
@@ -516,10 +905,466 @@ public class ValidationUtils {
     }
 }
 
+// LazyTableModel.java - Table model that loads its rows in blocks as they are shown
+package ui;
+
+import model.Page;
+import model.PageCursor;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A TableModel over a sorted table that is never loaded whole.
+ * 
+ * Rows are fetched in blocks of library.ui.blockSize (default 200) when the table
+ * first asks for a cell in them, on a background thread; until then the cells
+ * read as empty and the first column as "Loading...". At most library.ui.maxBlocks
+ * blocks (default 20) are kept, least recently shown dropped first. Each block is
+ * read with the DAO's keyset paging, starting from the cursor where the previous
+ * block ended, or from a cursor looked up by position when scrolled straight to it.
+ * 
+ * After an add, update or delete, call rowAdded, rowUpdated or rowRemoved with the
+ * row; the model works out its position and fires a single-row event, keeping
+ * the blocks before it and reloading only those after it that are shown.
+ * 
+ * All state is touched on the event dispatch thread only, so the public methods
+ * must be called there; the loader thread just runs queries and hands results
+ * back through invokeLater.
+ */
+public abstract class LazyTableModel<T> extends AbstractTableModel {
+    private static final int BLOCK_SIZE = Integer.getInteger("library.ui.blockSize", 200);
+    private static final int MAX_BLOCKS = Integer.getInteger("library.ui.maxBlocks", 20);
+    private static final String LOADING = "Loading...";
+    
+    // Shared by every lazy table, so queries from the UI never overlap
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "table-loader");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    private final String[] columns;
+    private final Map<Integer, List<T>> blocks = new LinkedHashMap<Integer, List<T>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+            return size() > MAX_BLOCKS;
+        }
+    };
+    // Cursor of the last row before each block; a null value means the block starts the table
+    private final Map<Integer, PageCursor> blockStarts = new HashMap<>();
+    private final Set<Integer> loading = new HashSet<>();
+    private int rowCount;
+    // Bumped by every change that moves rows, so loads started before it are discarded
+    private int generation;
+    // Bumped by refresh(); its recount already includes adds and removes queued before it
+    private int epoch;
+    
+    /**
+     * Subclasses call refresh() once constructed to load the row count.
+     */
+    protected LazyTableModel(String... columns) {
+        this.columns = columns;
+    }
+    
+    /** Number of rows in the whole table. Called off the EDT. */
+    protected abstract int loadRowCount();
+    
+    /** The page of up to size rows following after, or from the start when it is null. Called off the EDT. */
+    protected abstract Page<T> loadPage(PageCursor after, int size);
+    
+    /** Cursor of the row at offset in sort order, or null past the end. Called off the EDT. */
+    protected abstract PageCursor loadCursorAt(int offset);
+    
+    /** Number of rows sorting before cursor. Called off the EDT. */
+    protected abstract int loadCountBefore(PageCursor cursor);
+    
+    protected abstract PageCursor cursorOf(T row);
+    
+    protected abstract int idOf(T row);
+    
+    protected abstract Object valueOf(T row, int column);
+    
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+    
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+    
+    @Override
+    public String getColumnName(int column) {
+        return columns[column];
+    }
+    
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        T row = getRow(rowIndex);
+        if (row == null) {
+            return columnIndex == 0 ? LOADING : null;
+        }
+        return valueOf(row, columnIndex);
+    }
+    
+    /**
+     * The row at rowIndex if its block is loaded; otherwise starts loading it and returns null.
+     */
+    public T getRow(int rowIndex) {
+        int block = rowIndex / BLOCK_SIZE;
+        List<T> rows = blocks.get(block);
+        if (rows == null) {
+            requestBlock(block);
+            return null;
+        }
+        int offset = rowIndex % BLOCK_SIZE;
+        return offset < rows.size() ? rows.get(offset) : null;
+    }
+    
+    /**
+     * Drops every loaded row and recounts, e.g. after changes made by another desk.
+     */
+    public void refresh() {
+        int expected = ++epoch;
+        generation++;
+        blocks.clear();
+        blockStarts.clear();
+        loading.clear();
+        
+        LOADER.execute(() -> {
+            int count = loadRowCount();
+            SwingUtilities.invokeLater(() -> {
+                if (expected == epoch) {
+                    rowCount = count;
+                    fireTableDataChanged();
+                }
+            });
+        });
+    }
+    
+    /**
+     * Call after row has been inserted into the database.
+     */
+    public void rowAdded(T row) {
+        PageCursor cursor = cursorOf(row);
+        int expected = epoch;
+        LOADER.execute(() -> {
+            int position = loadCountBefore(cursor);
+            SwingUtilities.invokeLater(() -> {
+                if (expected != epoch) {
+                    return;
+                }
+                invalidateFrom(position);
+                rowCount++;
+                fireTableRowsInserted(position, position);
+            });
+        });
+    }
+    
+    /**
+     * Call after row has been deleted from the database; row needs only the
+     * fields that decide its position (the sort key and id).
+     */
+    public void rowRemoved(T row) {
+        int cached = indexOf(idOf(row));
+        if (cached >= 0) {
+            removeAt(cached);
+            return;
+        }
+        PageCursor cursor = cursorOf(row);
+        int expected = epoch;
+        LOADER.execute(() -> {
+            // The row is gone, so this counts the rows that were before it
+            int position = loadCountBefore(cursor);
+            SwingUtilities.invokeLater(() -> {
+                if (expected == epoch) {
+                    removeAt(position);
+                }
+            });
+        });
+    }
+    
+    /**
+     * Call after row has been updated in the database. A row that keeps its place
+     * is replaced where it is; one whose sort key changed is moved.
+     */
+    public void rowUpdated(T row) {
+        int index = indexOf(idOf(row));
+        if (index < 0) {
+            // Not loaded: its old place is unknown, so recount
+            refresh();
+            return;
+        }
+        
+        List<T> rows = blocks.get(index / BLOCK_SIZE);
+        T old = rows.get(index % BLOCK_SIZE);
+        PageCursor oldCursor = cursorOf(old);
+        PageCursor newCursor = cursorOf(row);
+        if (equalKeys(oldCursor, newCursor)) {
+            rows.set(index % BLOCK_SIZE, row);
+            fireTableRowsUpdated(index, index);
+            return;
+        }
+        
+        removeAt(index);
+        rowAdded(row);
+    }
+    
+    private void removeAt(int position) {
+        if (position < 0 || position >= rowCount) {
+            return;
+        }
+        invalidateFrom(position);
+        rowCount--;
+        fireTableRowsDeleted(position, position);
+    }
+    
+    /**
+     * Forgets every block from the one holding position on; the rows before
+     * position, and so the cursor that starts its block, are unaffected.
+     */
+    private void invalidateFrom(int position) {
+        int first = position / BLOCK_SIZE;
+        generation++;
+        loading.clear();
+        blocks.keySet().removeIf(block -> block >= first);
+        blockStarts.keySet().removeIf(block -> block > first);
+    }
+    
+    private int indexOf(int id) {
+        for (Map.Entry<Integer, List<T>> entry : blocks.entrySet()) {
+            List<T> rows = entry.getValue();
+            for (int i = 0; i < rows.size(); i++) {
+                if (idOf(rows.get(i)) == id) {
+                    return entry.getKey() * BLOCK_SIZE + i;
+                }
+            }
+        }
+        return -1;
+    }
+    
+    private void requestBlock(int block) {
+        if (!loading.add(block)) {
+            return;
+        }
+        int expected = generation;
+        boolean knownStart = block == 0 || blockStarts.containsKey(block);
+        PageCursor start = blockStarts.get(block);
+        
+        LOADER.execute(() -> {
+            PageCursor after = knownStart ? start : loadCursorAt(block * BLOCK_SIZE - 1);
+            List<T> rows = block == 0 || after != null
+                    ? loadPage(after, BLOCK_SIZE).getItems()
+                    : new ArrayList<>();
+            SwingUtilities.invokeLater(() -> blockLoaded(block, expected, after, rows));
+        });
+    }
+    
+    private void blockLoaded(int block, int expected, PageCursor after, List<T> rows) {
+        if (expected != generation) {
+            return;
+        }
+        loading.remove(block);
+        blockStarts.put(block, after);
+        blocks.put(block, rows);
+        if (rows.size() == BLOCK_SIZE) {
+            blockStarts.put(block + 1, cursorOf(rows.get(rows.size() - 1)));
+        }
+        
+        int first = block * BLOCK_SIZE;
+        int end = first + rows.size();
+        if (rows.size() < BLOCK_SIZE && end < rowCount) {
+            // A short block is the end of the table; the counters were ahead of it
+            int oldCount = rowCount;
+            rowCount = end;
+            fireTableRowsDeleted(end, oldCount - 1);
+        }
+        int last = Math.min(rowCount, first + BLOCK_SIZE) - 1;
+        if (last >= first) {
+            fireTableRowsUpdated(first, last);
+        }
+        trimBlockStarts();
+    }
+    
+    /**
+     * Keeps the cursor map from growing past what a long scroll needs to jump back.
+     */
+    private void trimBlockStarts() {
+        int limit = MAX_BLOCKS * 50;
+        if (blockStarts.size() <= limit) {
+            return;
+        }
+        Iterator<Integer> it = blockStarts.keySet().iterator();
+        while (blockStarts.size() > limit && it.hasNext()) {
+            Integer block = it.next();
+            if (!blocks.containsKey(block)) {
+                it.remove();
+            }
+        }
+    }
+    
+    private static boolean equalKeys(PageCursor a, PageCursor b) {
+        return a.getId() == b.getId()
+                && (a.getSortKey() == null ? b.getSortKey() == null : a.getSortKey().equals(b.getSortKey()));
+    }
+}
+
+// BookTableModel.java - Lazy table model for the book screen
+package ui;
+
+import dao.BookDAO;
+import model.Book;
+import model.Page;
+import model.PageCursor;
+import service.LibraryService;
+
+/**
+ * Books ordered by title, loaded a block at a time; see LazyTableModel.
+ */
+public class BookTableModel extends LazyTableModel<Book> {
+    private final BookDAO bookDAO = new BookDAO();
+    private final LibraryService libraryService = new LibraryService();
+    
+    public BookTableModel() {
+        super("ID", "Title", "Author", "ISBN", "Available");
+        refresh();
+    }
+    
+    @Override
+    protected int loadRowCount() {
+        return libraryService.getTotalBooksCount();
+    }
+    
+    @Override
+    protected Page<Book> loadPage(PageCursor after, int size) {
+        return bookDAO.getBooksPage(after, size);
+    }
+    
+    @Override
+    protected PageCursor loadCursorAt(int offset) {
+        return bookDAO.getBookCursorAt(offset);
+    }
+    
+    @Override
+    protected int loadCountBefore(PageCursor cursor) {
+        return bookDAO.countBooksBefore(cursor);
+    }
+    
+    @Override
+    protected PageCursor cursorOf(Book book) {
+        return new PageCursor(book.getTitle(), book.getId());
+    }
+    
+    @Override
+    protected int idOf(Book book) {
+        return book.getId();
+    }
+    
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 4 ? Boolean.class : Object.class;
+    }
+    
+    @Override
+    protected Object valueOf(Book book, int column) {
+        switch (column) {
+            case 0: return book.getId();
+            case 1: return book.getTitle();
+            case 2: return book.getAuthor();
+            case 3: return book.getIsbn();
+            case 4: return book.isAvailable();
+            default: return null;
+        }
+    }
+}
+
+// MemberTableModel.java - Lazy table model for the member screen
+package ui;
+
+import dao.MemberDAO;
+import model.Member;
+import model.Page;
+import model.PageCursor;
+import service.LibraryService;
+
+/**
+ * Members ordered by name, loaded a block at a time; see LazyTableModel.
+ */
+public class MemberTableModel extends LazyTableModel<Member> {
+    private final MemberDAO memberDAO = new MemberDAO();
+    private final LibraryService libraryService = new LibraryService();
+    
+    public MemberTableModel() {
+        super("ID", "Name", "Email", "Phone", "Address");
+        refresh();
+    }
+    
+    @Override
+    protected int loadRowCount() {
+        return libraryService.getTotalMembersCount();
+    }
+    
+    @Override
+    protected Page<Member> loadPage(PageCursor after, int size) {
+        return memberDAO.getMembersPage(after, size);
+    }
+    
+    @Override
+    protected PageCursor loadCursorAt(int offset) {
+        return memberDAO.getMemberCursorAt(offset);
+    }
+    
+    @Override
+    protected int loadCountBefore(PageCursor cursor) {
+        return memberDAO.countMembersBefore(cursor);
+    }
+    
+    @Override
+    protected PageCursor cursorOf(Member member) {
+        return new PageCursor(member.getName(), member.getId());
+    }
+    
+    @Override
+    protected int idOf(Member member) {
+        return member.getId();
+    }
+    
+    @Override
+    protected Object valueOf(Member member, int column) {
+        switch (column) {
+            case 0: return member.getId();
+            case 1: return member.getName();
+            case 2: return member.getEmail();
+            case 3: return member.getPhone();
+            case 4: return member.getAddress();
+            default: return null;
+        }
+    }
+}
+
 // Main.java - Updated main class with database initialization
 package main;
 
+import dao.BookDAO;
+import dao.MemberDAO;
+import service.DueDateScheduler;
+import service.LibraryCounters;
+import service.NotificationDispatcher;
+import service.LoanPopularity;
 import ui.LoginUI;
+import util.ChangeMonitor;
 import util.DatabaseInitializer;
 
 import javax.swing.*;
@@ -529,6 +1374,29 @@ public class Main {
         // Initialize database with sample data
         DatabaseInitializer.initializeDatabase();
         
+        // Build in-memory indexes in the background; lookups use SQLite until they are ready
+        Thread indexer = new Thread(() -> {
+            BookDAO.warmUpAvailability();
+            BookDAO.warmUpSearchIndex();
+            MemberDAO.warmUpSearchIndex();
+            LoanPopularity.catchUp();
+        }, "search-index-warmup");
+        indexer.setDaemon(true);
+        indexer.start();
+        
+        // Watch for writes from other desks sharing library.db
+        ChangeMonitor.start();
+        
+        // Periodically recount the dashboard totals against the real tables
+        LibraryCounters.startReconciliation(Long.getLong("library.counters.reconcileMinutes", 60L));
+        
+        // Queue due reminders and overdue notices as they fall due and send them from the
+        // outbox; with several desks sharing library.db, set library.notifications.enabled=false on all but one
+        if (Boolean.parseBoolean(System.getProperty("library.notifications.enabled", "true"))) {
+            NotificationDispatcher.start();
+            DueDateScheduler.start();
+        }
+        
         // Set look and feel for better UI appearance
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeel());